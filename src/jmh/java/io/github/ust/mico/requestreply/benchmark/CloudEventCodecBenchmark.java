@@ -0,0 +1,83 @@
+package io.github.ust.mico.requestreply.benchmark;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.github.ust.mico.requestreply.kafka.CloudEventDeserializer;
+import io.github.ust.mico.requestreply.kafka.CloudEventSerializer;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+
+/**
+ * Measures the CloudEvent codec and the event copy operations. Run with
+ * {@code -prof gc} to see the allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CloudEventCodecBenchmark {
+
+    @Param({ "200", "4096", "65536", "1048576" })
+    private int payloadSize;
+
+    @Param({ "0", "8", "64" })
+    private int extensions;
+
+    private final CloudEventDeserializer deserializer = new CloudEventDeserializer();
+
+    private final CloudEventSerializer serializer = new CloudEventSerializer();
+
+    private byte[] request;
+
+    private MicoCloudEventImpl<JsonNode> event;
+
+    private MicoCloudEventImpl<JsonNode> parsedEvent;
+
+    @Setup
+    public void setUp() {
+        request = CloudEvents.request(payloadSize, extensions);
+        event = deserializer.deserialize("requests", request);
+        parsedEvent = deserializer.deserialize("requests", request);
+        parsedEvent.getData();
+    }
+
+    @Benchmark
+    public MicoCloudEventImpl<JsonNode> deserialize() {
+        return deserializer.deserialize("requests", request);
+    }
+
+    @Benchmark
+    public Optional<JsonNode> deserializeAndGetData() {
+        return deserializer.deserialize("requests", request).getData();
+    }
+
+    @Benchmark
+    public byte[] serializePassThrough() {
+        return serializer.serialize("replies", event);
+    }
+
+    @Benchmark
+    public byte[] serializeParsed() {
+        return serializer.serialize("replies", parsedEvent);
+    }
+
+    @Benchmark
+    public MicoCloudEventImpl<JsonNode> copyConstructor() {
+        return new MicoCloudEventImpl<>(event);
+    }
+
+    @Benchmark
+    public MicoCloudEventImpl<JsonNode> setBaseCloudEvent() {
+        return new MicoCloudEventImpl<JsonNode>().setBaseCloudEvent(event);
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.ust.mico.requestreply.benchmark;
+
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import io.github.ust.mico.requestreply.kafka.CloudEventDeserializer;
+import io.github.ust.mico.requestreply.kafka.CloudEventSerializer;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+
+/**
+ * Compares the structured mode formats. The events are parsed, so every
+ * format has to encode the whole tree. The encoded size of each combination
+ * is printed once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CloudEventFormatBenchmark {
+
+    @Param({ "json", "smile", "cbor" })
+    private String format;
+
+    @Param({ "200", "4096", "65536" })
+    private int payloadSize;
+
+    private final CloudEventDeserializer deserializer = new CloudEventDeserializer();
+
+    private final CloudEventSerializer serializer = new CloudEventSerializer();
+
+    private MicoCloudEventImpl<JsonNode> event;
+
+    private Headers headers;
+
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() {
+        serializer.configure(Collections.singletonMap(CloudEventSerializer.FORMAT_CONFIG, format), false);
+        event = deserializer.deserialize("requests", CloudEvents.request(payloadSize, 8));
+        event.getData();
+        headers = new RecordHeaders();
+        encoded = serializer.serialize("replies", headers, event);
+        System.out.println("encoded size of " + format + " with payload " + payloadSize + ": " + encoded.length
+                + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize("replies", new RecordHeaders(), event);
+    }
+
+    @Benchmark
+    public MicoCloudEventImpl<JsonNode> decode() {
+        return deserializer.deserialize("replies", headers, encoded);
+    }
+
+    @Benchmark
+    public Optional<JsonNode> decodeAndGetData() {
+        return deserializer.deserialize("replies", headers, encoded).getData();
+    }
+}
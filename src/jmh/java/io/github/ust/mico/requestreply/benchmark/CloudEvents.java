@@ -0,0 +1,41 @@
+package io.github.ust.mico.requestreply.benchmark;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Builds serialized request events for the benchmarks.
+ */
+final class CloudEvents {
+
+    private CloudEvents() {
+    }
+
+    /**
+     * Builds a request event in structured JSON mode.
+     *
+     * @param payloadSize approximate size of the data in bytes
+     * @param extensions  number of unknown extension attributes
+     * @return the UTF-8 encoded event
+     */
+    static byte[] request(int payloadSize, int extensions) {
+        StringBuilder json = new StringBuilder(payloadSize + 512);
+        json.append("{\"id\":\"6f1c2d9e-3b7a-4e42-9a0c-5d8e1f2a3b4c\",\"source\":\"/benchmark\",\"type\":\"benchmark\"")
+                .append(",\"specversion\":\"0.2\",\"time\":\"2019-06-01T10:00:00Z\"")
+                .append(",\"contenttype\":\"application/json\",\"returntopic\":\"replies\"")
+                .append(",\"correlationid\":\"a1b2c3d4\",\"createdfrom\":\"4c3b2a1f\"");
+        for (int i = 0; i < extensions; i++) {
+            json.append(",\"extension").append(i).append("\":\"value").append(i).append('"');
+        }
+        // data is an object of small entries, so a parsed tree has many nodes
+        json.append(",\"data\":{\"entries\":[");
+        int start = json.length();
+        for (int i = 0; json.length() - start < payloadSize; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"key\":\"k").append(i).append("\",\"value\":").append(i).append('}');
+        }
+        json.append("]}}");
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
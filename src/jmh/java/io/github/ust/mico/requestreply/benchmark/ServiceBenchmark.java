@@ -0,0 +1,147 @@
+package io.github.ust.mico.requestreply.benchmark;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import io.github.ust.mico.requestreply.DeadlineScheduler;
+import io.github.ust.mico.requestreply.MessagingBridge;
+import io.github.ust.mico.requestreply.ReplyCache;
+import io.github.ust.mico.requestreply.SequenceAggregator;
+import io.github.ust.mico.requestreply.Sender;
+import io.github.ust.mico.requestreply.Service;
+import io.github.ust.mico.requestreply.StartupTimeline;
+import io.github.ust.mico.requestreply.configuration.HandlerConfig;
+import io.github.ust.mico.requestreply.handler.HandlerRegistry;
+import io.github.ust.mico.requestreply.handler.ProcessedRequestHandler;
+import io.github.ust.mico.requestreply.kafka.CloudEventDeserializer;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Measures {@link Service#processMessage} with the sender and the messaging
+ * bridge stubbed out, so neither Kafka nor a websocket broker is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServiceBenchmark {
+
+    @Param({ "200", "4096", "65536", "1048576" })
+    private int payloadSize;
+
+    @Param({ "0", "8", "64" })
+    private int extensions;
+
+    private Service service;
+
+    private HandlerRegistry handlerRegistry;
+
+    private byte[] request;
+
+    private final CloudEventDeserializer deserializer = new CloudEventDeserializer();
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        request = CloudEvents.request(payloadSize, extensions);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        // every invocation processes the same request id, so the cache would always hit
+        ReplyCache replyCache = new ReplyCache();
+        ReflectionTestUtils.setField(replyCache, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(replyCache, "enabled", false);
+        ReflectionTestUtils.setField(replyCache, "maxMemory", DataSize.ofKilobytes(1));
+        ReflectionTestUtils.setField(replyCache, "expireAfterWrite", Duration.ofMinutes(1));
+        replyCache.init();
+        DeadlineScheduler deadlineScheduler = new DeadlineScheduler();
+        ReflectionTestUtils.setField(deadlineScheduler, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(deadlineScheduler, "enabled", true);
+        deadlineScheduler.init();
+        handlerRegistry = new HandlerRegistry();
+        ReflectionTestUtils.setField(handlerRegistry, "handlerConfig", new HandlerConfig());
+        ReflectionTestUtils.setField(handlerRegistry, "handlers",
+                Collections.singletonMap("processed", new ProcessedRequestHandler()));
+        ReflectionTestUtils.setField(handlerRegistry, "meterRegistry", meterRegistry);
+        handlerRegistry.init();
+        service = new Service();
+        ReflectionTestUtils.setField(service, "handlerRegistry", handlerRegistry);
+        ReflectionTestUtils.setField(service, "sender", new BlackholeSender(blackhole));
+        ReflectionTestUtils.setField(service, "messagingBridge", new BlackholeMessagingBridge(blackhole));
+        ReflectionTestUtils.setField(service, "replyCache", replyCache);
+        ReflectionTestUtils.setField(service, "deadlineScheduler", deadlineScheduler);
+        // left disabled, unlike in the application, as the requests are not split anyway
+        ReflectionTestUtils.setField(service, "sequenceAggregator", new SequenceAggregator());
+        StartupTimeline startupTimeline = new StartupTimeline();
+        ReflectionTestUtils.setField(startupTimeline, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(service, "startupTimeline", startupTimeline);
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        service.init();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        handlerRegistry.close();
+    }
+
+    @Benchmark
+    public void processMessage() {
+        service.processMessage(deserializer.deserialize("requests", request)).join();
+    }
+
+    private static class BlackholeSender extends Sender {
+
+        private final Blackhole blackhole;
+
+        BlackholeSender(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void send(MicoCloudEventImpl<JsonNode> cloudEvent, String topic) {
+            blackhole.consume(cloudEvent);
+        }
+
+        @Override
+        public CompletableFuture<Void> sendToNextHop(MicoCloudEventImpl<JsonNode> cloudEvent) {
+            blackhole.consume(cloudEvent);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public List<CompletableFuture<Void>> send(List<MicoCloudEventImpl<JsonNode>> cloudEvents) {
+            blackhole.consume(cloudEvents);
+            return Collections.nCopies(cloudEvents.size(), CompletableFuture.completedFuture(null));
+        }
+    }
+
+    private static class BlackholeMessagingBridge extends MessagingBridge {
+
+        private final Blackhole blackhole;
+
+        BlackholeMessagingBridge(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void publish(MicoCloudEventImpl<JsonNode> incoming, MicoCloudEventImpl<JsonNode> outgoing) {
+            blackhole.consume(incoming);
+            blackhole.consume(outgoing);
+        }
+    }
+}
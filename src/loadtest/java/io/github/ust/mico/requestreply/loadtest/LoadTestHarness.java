@@ -0,0 +1,314 @@
+package io.github.ust.mico.requestreply.loadtest;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.HdrHistogram.Histogram;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+
+import io.github.ust.mico.requestreply.RequestReplyApplication;
+import io.github.ust.mico.requestreply.kafka.CloudEventDeserializer;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+
+/**
+ * End-to-end load test of the service on an embedded broker. It starts the
+ * broker and the {@link RequestReplyApplication}, sends requests at a fixed
+ * rate, spread over a number of return topics, and matches the replies to the
+ * requests by their correlation id. Latencies are measured from the time a
+ * request was due to be sent, so a stalled sender does not hide queueing.
+ * <p>
+ * Options are given as {@code --name=value}, all other arguments are passed to
+ * the application:
+ * <ul>
+ * <li>{@code requests} - number of measured requests (default 20000)</li>
+ * <li>{@code warmup} - requests sent before measuring (default 5000)</li>
+ * <li>{@code rate} - requests per second, 0 for as fast as possible (default
+ * 2000)</li>
+ * <li>{@code payload-size} - approximate size of the request data in bytes
+ * (default 1024)</li>
+ * <li>{@code return-topics} - number of return topics (default 1)</li>
+ * <li>{@code partitions} - partitions of every topic (default 4)</li>
+ * <li>{@code timeout} - seconds to wait for outstanding replies (default
+ * 60)</li>
+ * <li>{@code histogram} - file to write the HdrHistogram percentile
+ * distribution to, in milliseconds</li>
+ * <li>{@code min-throughput} - replies per second below which the run
+ * fails</li>
+ * <li>{@code max-p99-ms} - p99 latency in milliseconds above which the run
+ * fails</li>
+ * </ul>
+ * The process exits with 1 if replies are missing or a threshold is missed.
+ */
+public final class LoadTestHarness {
+
+    private static final String INPUT_TOPIC = "loadtest-requests";
+
+    private static final String RETURN_TOPIC_PREFIX = "loadtest-replies-";
+
+    private static final List<String> OPTIONS = Arrays.asList("requests", "warmup", "rate", "payload-size",
+            "return-topics", "partitions", "timeout", "histogram", "min-throughput", "max-p99-ms");
+
+    private static final long HIGHEST_TRACKABLE_LATENCY = TimeUnit.MINUTES.toNanos(5);
+
+    private final Map<String, String> options;
+
+    private final List<String> applicationArgs;
+
+    /**
+     * Due send time of the outstanding requests by request id.
+     */
+    private final Map<String, Long> outstanding = new ConcurrentHashMap<>();
+
+    private final Histogram latencies = new Histogram(HIGHEST_TRACKABLE_LATENCY, 3);
+
+    private final AtomicBoolean measuring = new AtomicBoolean();
+
+    private volatile boolean stopped;
+
+    private volatile long measuredReplies;
+
+    private volatile long lastReplyTime;
+
+    private LoadTestHarness(Map<String, String> options, List<String> applicationArgs) {
+        this.options = options;
+        this.applicationArgs = applicationArgs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        List<String> applicationArgs = new ArrayList<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            String name = arg.startsWith("--") && separator > 0 ? arg.substring(2, separator) : null;
+            if (name != null && OPTIONS.contains(name)) {
+                options.put(name, arg.substring(separator + 1));
+            } else {
+                applicationArgs.add(arg);
+            }
+        }
+        System.exit(new LoadTestHarness(options, applicationArgs).run() ? 0 : 1);
+    }
+
+    private boolean run() throws Exception {
+        int requests = intOption("requests", 20000);
+        int warmup = intOption("warmup", 5000);
+        int rate = intOption("rate", 2000);
+        int payloadSize = intOption("payload-size", 1024);
+        int returnTopics = intOption("return-topics", 1);
+        int partitions = intOption("partitions", 4);
+        Duration timeout = Duration.ofSeconds(intOption("timeout", 60));
+
+        String[] topics = new String[returnTopics + 1];
+        topics[0] = INPUT_TOPIC;
+        for (int i = 0; i < returnTopics; i++) {
+            topics[i + 1] = RETURN_TOPIC_PREFIX + i;
+        }
+        EmbeddedKafkaBroker broker = new EmbeddedKafkaBroker(1, false, partitions, topics);
+        broker.afterPropertiesSet();
+        ConfigurableApplicationContext application = null;
+        try {
+            List<String> args = new ArrayList<>();
+            args.add("--server.port=0");
+            args.add("--kafka.bootstrap-servers=" + broker.getBrokersAsString());
+            args.add("--kafka.input-topic=" + INPUT_TOPIC);
+            args.add("--messaging-bridge.enabled=false");
+            // options given on the command line override the defaults above
+            args.addAll(applicationArgs);
+            application = SpringApplication.run(RequestReplyApplication.class, args.toArray(new String[0]));
+
+            try (KafkaConsumer<String, byte[]> consumer = replyConsumer(broker, topics);
+                    KafkaProducer<String, byte[]> producer = requestProducer(broker)) {
+                Thread replyReader = new Thread(() -> readReplies(consumer), "loadtest-replies");
+                replyReader.start();
+                awaitService(producer, returnTopics, timeout);
+
+                System.out.printf("Warming up with %d requests%n", warmup);
+                send(producer, warmup, rate, payloadSize, returnTopics, "warmup-");
+                awaitReplies(timeout);
+                outstanding.clear();
+
+                System.out.printf("Sending %d requests at %s, %d bytes of data, %d return topics%n", requests,
+                        rate > 0 ? rate + " requests/s" : "full speed", payloadSize, returnTopics);
+                measuring.set(true);
+                long start = System.nanoTime();
+                send(producer, requests, rate, payloadSize, returnTopics, "request-");
+                boolean complete = awaitReplies(timeout);
+                long elapsed = lastReplyTime - start;
+                measuring.set(false);
+                stopped = true;
+                replyReader.join();
+                return report(requests, elapsed, complete);
+            }
+        } finally {
+            if (application != null) {
+                application.close();
+            }
+            broker.destroy();
+        }
+    }
+
+    /**
+     * The service starts reading its input topic at the latest offset once it
+     * got its partitions, so probe requests are sent until one is answered.
+     */
+    private void awaitService(KafkaProducer<String, byte[]> producer, int returnTopics, Duration timeout)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (int probe = 0; System.nanoTime() < deadline; probe++) {
+            send(producer, 1, 0, 0, returnTopics, "probe-" + probe + "-");
+            if (awaitReplies(Duration.ofMillis(500)) || outstanding.size() < probe + 1) {
+                outstanding.clear();
+                return;
+            }
+        }
+        throw new IllegalStateException("The service did not answer within " + timeout);
+    }
+
+    /**
+     * Sends the requests open loop: request {@code i} is due {@code i / rate}
+     * seconds after the start, no matter how long earlier sends took.
+     */
+    private void send(KafkaProducer<String, byte[]> producer, int count, int rate, int payloadSize,
+            int returnTopics, String idPrefix) {
+        String data = payload(payloadSize);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            long due = rate > 0 ? start + i * TimeUnit.SECONDS.toNanos(1) / rate : System.nanoTime();
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            String id = idPrefix + i;
+            String returnTopic = RETURN_TOPIC_PREFIX + (i % returnTopics);
+            byte[] request = ("{\"id\":\"" + id + "\",\"source\":\"/loadtest\",\"type\":\"loadtest\""
+                    + ",\"specversion\":\"0.2\",\"contenttype\":\"application/json\",\"returntopic\":\"" + returnTopic
+                    + "\",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8);
+            outstanding.put(id, due);
+            producer.send(new ProducerRecord<>(INPUT_TOPIC, id, request));
+        }
+        producer.flush();
+    }
+
+    private void readReplies(KafkaConsumer<String, byte[]> consumer) {
+        CloudEventDeserializer deserializer = new CloudEventDeserializer();
+        while (!stopped) {
+            for (ConsumerRecord<String, byte[]> record : consumer.poll(Duration.ofMillis(100).toMillis())) {
+                long now = System.nanoTime();
+                MicoCloudEventImpl<JsonNode> reply = deserializer.deserialize(record.topic(), record.headers(),
+                        record.value());
+                String correlationId = reply.getCorrelationId().orElse(null);
+                Long due = correlationId == null ? null : outstanding.remove(correlationId);
+                if (due != null && measuring.get()) {
+                    latencies.recordValue(Math.min(now - due, HIGHEST_TRACKABLE_LATENCY));
+                    measuredReplies++;
+                    lastReplyTime = now;
+                }
+            }
+        }
+    }
+
+    private boolean awaitReplies(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (!outstanding.isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        return outstanding.isEmpty();
+    }
+
+    private boolean report(int requests, long elapsedNanos, boolean complete) throws IOException {
+        double throughput = measuredReplies / (elapsedNanos / 1e9);
+        System.out.printf("Replies:    %d of %d%n", measuredReplies, requests);
+        System.out.printf("Throughput: %.0f replies/s%n", throughput);
+        System.out.printf("Latency:    p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n", millis(50),
+                millis(99), millis(99.9), latencies.getMaxValue() / 1e6);
+        String histogram = options.get("histogram");
+        if (histogram != null) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(histogram), false, "UTF-8")) {
+                latencies.outputPercentileDistribution(out, 1e6);
+            }
+            System.out.printf("Histogram:  %s%n", histogram);
+        }
+
+        boolean passed = complete;
+        if (!complete) {
+            System.out.printf("FAILED: %d replies missing%n", requests - measuredReplies);
+        }
+        if (options.containsKey("min-throughput") && throughput < Double.parseDouble(options.get("min-throughput"))) {
+            System.out.printf("FAILED: throughput below %s replies/s%n", options.get("min-throughput"));
+            passed = false;
+        }
+        if (options.containsKey("max-p99-ms") && millis(99) > Double.parseDouble(options.get("max-p99-ms"))) {
+            System.out.printf("FAILED: p99 above %s ms%n", options.get("max-p99-ms"));
+            passed = false;
+        }
+        return passed;
+    }
+
+    private double millis(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1e6;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(options.getOrDefault(name, String.valueOf(defaultValue)));
+    }
+
+    private static String payload(int size) {
+        StringBuilder data = new StringBuilder(size + 32).append("{\"entries\":[");
+        for (int i = 0; data.length() < size; i++) {
+            if (i > 0) {
+                data.append(',');
+            }
+            data.append("{\"key\":\"k").append(i).append("\",\"value\":").append(i).append('}');
+        }
+        return data.append("]}").toString();
+    }
+
+    private static KafkaConsumer<String, byte[]> replyConsumer(EmbeddedKafkaBroker broker, String[] topics) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, "loadtest");
+        properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        KafkaConsumer<String, byte[]> consumer = new KafkaConsumer<>(properties, new StringDeserializer(),
+                new ByteArrayDeserializer());
+        List<String> returnTopics = new ArrayList<>();
+        for (int i = 1; i < topics.length; i++) {
+            returnTopics.add(topics[i]);
+        }
+        consumer.subscribe(returnTopics);
+        return consumer;
+    }
+
+    private static KafkaProducer<String, byte[]> requestProducer(EmbeddedKafkaBroker broker) {
+        Properties properties = new Properties();
+        properties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, broker.getBrokersAsString());
+        properties.put(ProducerConfig.LINGER_MS_CONFIG, 1);
+        return new KafkaProducer<>(properties, new StringSerializer(), new ByteArraySerializer());
+    }
+}
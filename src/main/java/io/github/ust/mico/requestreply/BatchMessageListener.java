@@ -0,0 +1,102 @@
+package io.github.ust.mico.requestreply;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.kafka.FailedRecordsException;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Receives whole poll batches instead of single records. Only active if
+ * {@code kafka.listener-mode} is set to {@code batch}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kafka.listener-mode", havingValue = "batch")
+public class BatchMessageListener {
+
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private DeadlineScheduler deadlineScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer receiveTimer;
+
+    @PostConstruct
+    public void init() {
+        receiveTimer = Timer.builder("listener.receive").tag("mode", "batch").register(meterRegistry);
+    }
+
+    /**
+     * Entry point for incoming message batches from kafka. Records that could
+     * not be deserialized arrive without a value and go to the dead-letter
+     * topic, records failing to be processed go to the retry topics. Both are
+     * reported in a {@link FailedRecordsException}, which the batch error
+     * handler hands to the retry topics before committing the batch. The batch is
+     * processed earliest deadline first, preserving the order per record key.
+     * The listener waits until the broker acknowledged the replies of the
+     * batch, so the offsets are only committed once the batch is answered and
+     * requests whose reply could not be sent went to the retry topics.
+     *
+     * @param records
+     */
+    @KafkaListener(topics = "${kafka.input-topic}", groupId = "${kafka.group-id}", containerFactory = "batchKafkaListenerContainerFactory")
+    public void receive(List<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>> records) {
+        long start = System.nanoTime();
+        log.info("Received batch of {} CloudEvent messages", records.size());
+        List<MicoCloudEventImpl<JsonNode>> cloudEvents = new ArrayList<>(records.size());
+        Map<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>, Exception> failures = new LinkedHashMap<>();
+        Map<MicoCloudEventImpl<JsonNode>, ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>> recordsByEvent =
+                new IdentityHashMap<>();
+        for (ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record : deadlineScheduler.schedule(records,
+                BatchMessageListener::orderingKey)) {
+            if (record.value() == null) {
+                // could not be deserialized, goes to the dead-letter topic
+                failures.put(record, null);
+                continue;
+            }
+            cloudEvents.add(record.value());
+            recordsByEvent.put(record.value(), record);
+        }
+        try {
+            Map<MicoCloudEventImpl<JsonNode>, Throwable> failed = service.processBatch(cloudEvents).join();
+            failed.forEach((cloudEvent, e) -> failures.put(recordsByEvent.get(cloudEvent),
+                    e instanceof Exception ? (Exception) e : new CompletionException(e)));
+        } finally {
+            receiveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        if (!failures.isEmpty()) {
+            throw new FailedRecordsException(failures);
+        }
+    }
+
+    /**
+     * Records without a key keep the order of their partition.
+     */
+    private static Object orderingKey(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        return record.key() != null ? record.key() : record.topic() + "-" + record.partition();
+    }
+
+}
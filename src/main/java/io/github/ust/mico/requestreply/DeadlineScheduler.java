@@ -0,0 +1,158 @@
+package io.github.ust.mico.requestreply;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Takes the {@code expiryDate} of requests into account. Requests that are
+ * already expired when they are about to be processed are dropped, and a
+ * backlog of received records is worked off earliest deadline first. The
+ * expiry date is a plain attribute of the event, so the check never touches
+ * the payload.
+ */
+@Slf4j
+@Component
+public class DeadlineScheduler {
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${deadline.enabled}")
+    private boolean enabled;
+
+    private Counter shed;
+
+    private Counter late;
+
+    private Counter onTime;
+
+    @PostConstruct
+    public void init() {
+        shed = Counter.builder("deadline.requests").tag("outcome", "shed").register(meterRegistry);
+        late = Counter.builder("deadline.requests").tag("outcome", "late").register(meterRegistry);
+        onTime = Counter.builder("deadline.requests").tag("outcome", "on-time").register(meterRegistry);
+    }
+
+    /**
+     * Checks whether a request should still be processed.
+     *
+     * @param cloudEvent the request
+     * @return false if the request is expired and must be dropped
+     */
+    public boolean admit(MicoCloudEventImpl<?> cloudEvent) {
+        if (!enabled || deadlineOf(cloudEvent) > System.currentTimeMillis()) {
+            return true;
+        }
+        log.info("Dropping expired message '{}'", cloudEvent.getId());
+        shed.increment();
+        return false;
+    }
+
+    /**
+     * Records whether the reply to a request was sent before its deadline.
+     * Requests without an expiry date are not counted.
+     *
+     * @param cloudEvent the request
+     */
+    public void completed(MicoCloudEventImpl<?> cloudEvent) {
+        long deadline = deadlineOf(cloudEvent);
+        if (!enabled || deadline == NO_DEADLINE) {
+            return;
+        }
+        if (deadline > System.currentTimeMillis()) {
+            onTime.increment();
+        } else {
+            late.increment();
+        }
+    }
+
+    /**
+     * Orders the records of a poll batch earliest deadline first. Records with
+     * the same ordering key keep their relative order, so a record only
+     * overtakes records of other keys. Records with the same deadline, e.g.
+     * none, are taken in the order they arrived in, across partitions as well.
+     * Records without an event are kept, in their original position relative
+     * to their key, for the caller to skip.
+     *
+     * @param records     the received records
+     * @param orderingKey the key whose order must be preserved
+     * @return the records in processing order
+     */
+    public List<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>> schedule(
+            List<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>> records,
+            Function<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>, Object> orderingKey) {
+        if (!enabled || records.stream().allMatch(record -> deadlineOf(record.value()) == NO_DEADLINE)) {
+            return records;
+        }
+        Map<Object, ArrayDeque<Arrival>> queues = new LinkedHashMap<>();
+        long sequence = 0;
+        for (ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record : records) {
+            queues.computeIfAbsent(orderingKey.apply(record), key -> new ArrayDeque<>())
+                    .add(new Arrival(record, sequence++));
+        }
+        // Offsets are only ordered within a partition, so ties are broken by arrival
+        PriorityQueue<ArrayDeque<Arrival>> heads = new PriorityQueue<>(queues.size(),
+                Comparator.comparingLong((ArrayDeque<Arrival> queue) -> queue.peek().deadline)
+                        .thenComparingLong(queue -> queue.peek().sequence));
+        heads.addAll(queues.values());
+        List<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>> scheduled = new ArrayList<>(records.size());
+        while (!heads.isEmpty()) {
+            ArrayDeque<Arrival> queue = heads.poll();
+            scheduled.add(queue.poll().record);
+            if (!queue.isEmpty()) {
+                heads.add(queue);
+            }
+        }
+        return scheduled;
+    }
+
+    private static long deadlineOf(MicoCloudEventImpl<?> cloudEvent) {
+        if (cloudEvent == null) {
+            return NO_DEADLINE;
+        }
+        ZonedDateTime expiryDate = cloudEvent.getExpiryDateOrNull();
+        return expiryDate == null ? NO_DEADLINE : expiryDate.toInstant().toEpochMilli();
+    }
+
+    /**
+     * A record of a poll batch with its position in the batch.
+     */
+    private static final class Arrival {
+
+        private final ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record;
+
+        private final long deadline;
+
+        private final long sequence;
+
+        Arrival(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record, long sequence) {
+            this.record = record;
+            this.deadline = deadlineOf(record.value());
+            this.sequence = sequence;
+        }
+    }
+
+}
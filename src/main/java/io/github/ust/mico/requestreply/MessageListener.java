@@ -1,17 +1,26 @@
 package io.github.ust.mico.requestreply;
 
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+
 import com.fasterxml.jackson.databind.JsonNode;
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
 import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Component
+@ConditionalOnProperty(name = "kafka.listener-mode", havingValue = "record", matchIfMissing = true)
 public class MessageListener {
 
     /**
@@ -23,16 +32,36 @@ public class MessageListener {
     @Autowired
     private Service service;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Timer receiveTimer;
+
+    @PostConstruct
+    public void init() {
+        receiveTimer = Timer.builder("listener.receive").tag("mode", "record").register(meterRegistry);
+    }
+
     /**
-     * Entry point for incoming messages from kafka.
+     * Entry point for incoming messages from kafka. The reply is computed on the
+     * handler executor, the listener waits for it to be handed to the producer,
+     * so the offset is only committed once the record is processed. A failure
+     * is thrown to the error handler of the container, which hands the record
+     * to the retry topics.
      *
-     * @param message
+     * @param record
      */
     @KafkaListener(topics = "${kafka.input-topic}", groupId = "${kafka.group-id}")
-    public void receive(MicoCloudEventImpl<JsonNode> cloudEvent) {
-        log.info("Received CloudEvent message: {}", cloudEvent);
-        // websocketsTemplate.convertAndSend("/topic/messaging-bridge", cloudEvent);
-        service.processMessage(cloudEvent);
+    public void receive(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        long start = System.nanoTime();
+        try {
+            MicoCloudEventImpl<JsonNode> cloudEvent = record.value();
+            log.info("Received CloudEvent message: {}", cloudEvent);
+            // websocketsTemplate.convertAndSend("/topic/messaging-bridge", cloudEvent);
+            service.processMessage(cloudEvent).join();
+        } finally {
+            receiveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
     }
 
 }
@@ -0,0 +1,158 @@
+package io.github.ust.mico.requestreply;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+import org.springframework.web.socket.messaging.SessionSubscribeEvent;
+import org.springframework.web.socket.messaging.SessionUnsubscribeEvent;
+
+import io.github.ust.mico.requestreply.configuration.MessagingBridgeConfig;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Mirrors processed messages to the message viewer via stomp and websockets.
+ * Publishing only puts the message pair into a bounded buffer, the frames are
+ * built and sent on a separate thread. Nothing is buffered while nobody is
+ * subscribed, and entries are dropped rather than slowing down the caller.
+ */
+@Slf4j
+@Component
+public class MessagingBridge {
+
+  static final String DESTINATION = "/topic/messaging-bridge";
+
+  /**
+   * Used for messaging via stomp and websockets
+   */
+  @Autowired
+  SimpMessagingTemplate websocketsTemplate;
+
+  @Autowired
+  private MessagingBridgeConfig config;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  /**
+   * Subscriptions to the feed, as session id and subscription id.
+   */
+  private final Set<String> subscriptions = ConcurrentHashMap.newKeySet();
+
+  private ArrayBlockingQueue<Entry> buffer;
+
+  private ScheduledExecutorService flusher;
+
+  private Counter droppedCounter;
+
+  private Timer flushTimer;
+
+  @PostConstruct
+  public void init() {
+    buffer = new ArrayBlockingQueue<>(config.getBufferSize());
+    droppedCounter = meterRegistry.counter("messaging-bridge.dropped");
+    flushTimer = meterRegistry.timer("messaging-bridge.flush");
+    flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "messaging-bridge");
+      thread.setDaemon(true);
+      return thread;
+    });
+    flusher.scheduleWithFixedDelay(this::flush, config.getFlushIntervalMs(), config.getFlushIntervalMs(),
+        TimeUnit.MILLISECONDS);
+  }
+
+  @PreDestroy
+  public void close() {
+    flusher.shutdownNow();
+  }
+
+  /**
+   * Offers a processed message to the feed. Returns immediately.
+   *
+   * @param incoming the received event
+   * @param outgoing the reply to it
+   */
+  public void publish(MicoCloudEventImpl<JsonNode> incoming, MicoCloudEventImpl<JsonNode> outgoing) {
+    if (!config.isEnabled() || subscriptions.isEmpty()) {
+      return;
+    }
+    if (config.getSampleRate() < 1.0 && ThreadLocalRandom.current().nextDouble() >= config.getSampleRate()) {
+      return;
+    }
+    Entry entry = new Entry(incoming, outgoing);
+    while (!buffer.offer(entry)) {
+      // Lossy: make room by dropping the oldest entry
+      if (buffer.poll() != null) {
+        droppedCounter.increment();
+      }
+    }
+  }
+
+  private void flush() {
+    try {
+      List<Entry> entries = new ArrayList<>(config.getMaxFrameSize());
+      while (buffer.drainTo(entries, config.getMaxFrameSize()) > 0) {
+        if (!subscriptions.isEmpty()) {
+          ArrayNode frame = JsonNodeFactory.instance.arrayNode();
+          for (Entry entry : entries) {
+            frame.addObject().put("incoming", entry.incoming.toString()).put("outgoing", entry.outgoing.toString());
+          }
+          flushTimer.record(() -> websocketsTemplate.convertAndSend(DESTINATION, frame));
+        }
+        entries.clear();
+      }
+    } catch (RuntimeException e) {
+      log.warn("Could not send frame to the messaging bridge", e);
+    }
+  }
+
+  @EventListener
+  public void onSubscribe(SessionSubscribeEvent event) {
+    SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+    if (DESTINATION.equals(headers.getDestination())) {
+      subscriptions.add(headers.getSessionId() + ":" + headers.getSubscriptionId());
+    }
+  }
+
+  @EventListener
+  public void onUnsubscribe(SessionUnsubscribeEvent event) {
+    SimpMessageHeaderAccessor headers = SimpMessageHeaderAccessor.wrap(event.getMessage());
+    subscriptions.remove(headers.getSessionId() + ":" + headers.getSubscriptionId());
+  }
+
+  @EventListener
+  public void onDisconnect(SessionDisconnectEvent event) {
+    String prefix = event.getSessionId() + ":";
+    subscriptions.removeIf(subscription -> subscription.startsWith(prefix));
+  }
+
+  @AllArgsConstructor
+  private static class Entry {
+    private final MicoCloudEventImpl<JsonNode> incoming;
+    private final MicoCloudEventImpl<JsonNode> outgoing;
+  }
+}
@@ -0,0 +1,157 @@
+package io.github.ust.mico.requestreply;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.support.Acknowledgment;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.kafka.FailedRecordsException;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Spreads each poll batch over a pool of worker lanes, so a single consumer
+ * can use all cores even if the input topic has few partitions. Records with
+ * the same ordering key always go to the same single threaded lane and are
+ * therefore processed in their original order. The offsets of a batch are
+ * committed once all of its records are processed. Within a batch, records
+ * are handed to the lanes earliest deadline first. Only active if
+ * {@code kafka.listener-mode} is set to {@code parallel}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kafka.listener-mode", havingValue = "parallel")
+public class ParallelMessageListener {
+
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private DeadlineScheduler deadlineScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Number of worker lanes, 0 for one per available core.
+     */
+    @Value("${kafka.parallel.workers}")
+    private int workers;
+
+    /**
+     * Whether records are ordered by their record key ({@code key}) or by the
+     * correlation id of the event ({@code correlation-id}).
+     */
+    @Value("${kafka.parallel.order-by}")
+    private String orderBy;
+
+    private ExecutorService[] lanes;
+
+    private Timer receiveTimer;
+
+    @PostConstruct
+    public void init() {
+        int laneCount = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        lanes = new ExecutorService[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            String name = "parallel-worker-" + i;
+            lanes[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+        }
+        receiveTimer = Timer.builder("listener.receive").tag("mode", "parallel").register(meterRegistry);
+        log.info("Processing records on {} worker lanes ordered by {}", laneCount, orderBy);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.awaitTermination(30, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Entry point for incoming message batches from kafka. Records that could
+     * not be deserialized arrive without a value and go to the dead-letter
+     * topic, records failing to be processed go to the retry topics. Both are
+     * reported in a {@link FailedRecordsException} instead of acknowledging
+     * the batch, the batch error handler hands them over and commits the batch.
+     *
+     * @param records
+     * @param acknowledgment commits the offsets of the batch
+     */
+    @KafkaListener(topics = "${kafka.input-topic}", groupId = "${kafka.group-id}", containerFactory = "parallelKafkaListenerContainerFactory")
+    public void receive(List<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>> records,
+            Acknowledgment acknowledgment) {
+        long start = System.nanoTime();
+        log.info("Received batch of {} CloudEvent messages", records.size());
+        List<CompletableFuture<Void>> processed = new ArrayList<>(records.size());
+        Map<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>, Exception> failures = Collections
+                .synchronizedMap(new LinkedHashMap<>());
+        for (ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record : deadlineScheduler.schedule(records,
+                this::orderingKey)) {
+            if (record.value() == null) {
+                // could not be deserialized, goes to the dead-letter topic
+                failures.put(record, null);
+                continue;
+            }
+            processed.add(CompletableFuture.runAsync(() -> process(record, failures), laneOf(record)));
+        }
+        CompletableFuture.allOf(processed.toArray(new CompletableFuture[0])).join();
+        receiveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (!failures.isEmpty()) {
+            throw new FailedRecordsException(failures);
+        }
+        acknowledgment.acknowledge();
+    }
+
+    private void process(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record,
+            Map<ConsumerRecord<String, MicoCloudEventImpl<JsonNode>>, Exception> failures) {
+        try {
+            // a lane waits for the reply, so records with the same key are also answered in order
+            service.processMessage(record.value()).join();
+        } catch (RuntimeException e) {
+            log.error("Could not process message '{}'", record.value().getId(), e);
+            failures.put(record, e);
+        }
+    }
+
+    /**
+     * Picks the lane of a record by its ordering key.
+     */
+    private ExecutorService laneOf(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        return lanes[Math.floorMod(orderingKey(record).hashCode(), lanes.length)];
+    }
+
+    /**
+     * Records without a key keep the order of their partition.
+     */
+    private Object orderingKey(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        Object orderingKey = "correlation-id".equals(orderBy) && record.value() != null
+                ? record.value().getCorrelationIdOrNull()
+                : record.key();
+        return orderingKey != null ? orderingKey : record.topic() + "-" + record.partition();
+    }
+
+}
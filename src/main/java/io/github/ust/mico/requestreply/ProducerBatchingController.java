@@ -0,0 +1,270 @@
+package io.github.ust.mico.requestreply;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.configuration.ProducerBatchingConfig;
+import io.github.ust.mico.requestreply.configuration.ProducerBatchingConfig.Adaptive;
+import io.github.ust.mico.requestreply.configuration.ProducerBatchingConfig.Profile;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.github.ust.mico.requestreply.kafka.ReconfigurableProducerFactory;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tunes the batching of the reply producer. In adaptive mode the send rate and
+ * the ack latency of the last interval decide about the linger: it is halved
+ * while acks take longer than the target, doubled while the rate is high and
+ * reset to its minimum when the rate is low. The batch size follows, so that
+ * the bytes sent during one linger fit into a batch. The settings and the last
+ * decisions are exposed as actuator endpoint {@code producerbatching}, which
+ * also allows to switch the profile.
+ */
+@Slf4j
+@Component
+@Endpoint(id = "producerbatching")
+public class ProducerBatchingController {
+
+  private static final int MAX_DECISIONS = 20;
+
+  @Autowired
+  private ProducerBatchingConfig config;
+
+  @Autowired
+  private ReconfigurableProducerFactory<String, MicoCloudEventImpl<JsonNode>> producerFactory;
+
+  @Autowired
+  private Sender sender;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  private final Deque<Decision> decisions = new ArrayDeque<>();
+
+  private ScheduledExecutorService tuner;
+
+  private volatile String profile;
+
+  private volatile int lingerMs;
+
+  private volatile int batchSize;
+
+  private volatile Window lastWindow;
+
+  private double lastSent;
+
+  private long lastAcks;
+
+  private double lastAckMs;
+
+  private long lastRecords;
+
+  private double lastBytes;
+
+  private long lastNanos;
+
+  @PostConstruct
+  public void init() {
+    profile = config.getProfile();
+    Profile settings = config.getProfiles().get(profile);
+    lingerMs = settings.getLingerMs();
+    batchSize = settings.getBatchSize();
+    if (config.getAdaptive().isEnabled()) {
+      lastNanos = System.nanoTime();
+      tuner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "producer-batching");
+        thread.setDaemon(true);
+        return thread;
+      });
+      long interval = config.getAdaptive().getIntervalMs();
+      tuner.scheduleWithFixedDelay(this::evaluateSafely, interval, interval, TimeUnit.MILLISECONDS);
+      log.info("Adaptive producer batching enabled, starting from profile '{}'", profile);
+    }
+  }
+
+  @PreDestroy
+  public void close() {
+    if (tuner != null) {
+      tuner.shutdownNow();
+    }
+  }
+
+  @ReadOperation
+  public Map<String, Object> batching() {
+    Map<String, Object> effective = producerFactory.getEffectiveConfiguration();
+    Map<String, Object> settings = new LinkedHashMap<>();
+    settings.put(ProducerConfig.LINGER_MS_CONFIG, effective.get(ProducerConfig.LINGER_MS_CONFIG));
+    settings.put(ProducerConfig.BATCH_SIZE_CONFIG, effective.get(ProducerConfig.BATCH_SIZE_CONFIG));
+    settings.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, effective.get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("profile", profile);
+    result.put("adaptive", config.getAdaptive().isEnabled());
+    result.put("effectiveSettings", settings);
+    result.put("lastWindow", lastWindow);
+    synchronized (decisions) {
+      result.put("decisions", new ArrayList<>(decisions));
+    }
+    return result;
+  }
+
+  /**
+   * Switches to another profile. In adaptive mode tuning continues from the
+   * settings of the new profile.
+   *
+   * @param profile the name of the profile
+   */
+  @WriteOperation
+  public Map<String, Object> selectProfile(String profile) {
+    Profile settings = config.getProfiles().get(profile);
+    if (settings == null) {
+      throw new IllegalArgumentException("Unknown producer profile '" + profile + "'");
+    }
+    synchronized (this) {
+      this.profile = profile;
+      apply(settings.getLingerMs(), settings.getBatchSize(), settings.getCompressionType(),
+          "profile '" + profile + "' selected", lastWindow);
+    }
+    return batching();
+  }
+
+  private void evaluateSafely() {
+    try {
+      evaluate();
+    } catch (RuntimeException e) {
+      log.error("Could not tune the producer batching", e);
+    }
+  }
+
+  synchronized void evaluate() {
+    Window window = measure();
+    lastWindow = window;
+    if (window.getRecordsPerSecond() == 0) {
+      return;
+    }
+    Adaptive adaptive = config.getAdaptive();
+    int newLingerMs = lingerMs;
+    String reason;
+    if (window.getAckLatencyMs() > adaptive.getTargetAckLatencyMs()) {
+      newLingerMs = Math.max(adaptive.getMinLingerMs(), lingerMs / 2);
+      reason = "ack latency above target";
+    } else if (window.getRecordsPerSecond() >= adaptive.getHighRate()) {
+      newLingerMs = Math.min(adaptive.getMaxLingerMs(), Math.max(1, lingerMs * 2));
+      reason = "send rate high";
+    } else if (window.getRecordsPerSecond() < adaptive.getLowRate()) {
+      newLingerMs = adaptive.getMinLingerMs();
+      reason = "send rate low";
+    } else {
+      reason = "send rate moderate";
+    }
+    double bytesPerLinger = window.getRecordsPerSecond() * window.getAverageRecordSize() * Math.max(1, newLingerMs)
+        / 1000;
+    int newBatchSize = (int) Math.min(adaptive.getMaxBatchSize(),
+        Math.max(adaptive.getMinBatchSize(), Long.highestOneBit((long) bytesPerLinger) << 1));
+    if (newLingerMs != lingerMs || newBatchSize != batchSize) {
+      apply(newLingerMs, newBatchSize, null, reason, window);
+    }
+  }
+
+  /**
+   * Recreates the producer with the given settings. Sends are only held back
+   * while the producer is swapped, the old one hands over its records
+   * afterwards.
+   */
+  private void apply(int lingerMs, int batchSize, String compressionType, String reason, Window window) {
+    Map<String, Object> overrides = new HashMap<>();
+    overrides.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+    overrides.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+    overrides.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType != null ? compressionType
+        : producerFactory.getEffectiveConfiguration().get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+    log.info("Producer batching: linger.ms {} -> {}, batch.size {} -> {} ({})", this.lingerMs, lingerMs,
+        this.batchSize, batchSize, reason);
+    Producer<String, MicoCloudEventImpl<JsonNode>> detached = sender
+        .whileNotSending(() -> producerFactory.reconfigure(overrides));
+    producerFactory.close(detached);
+    this.lingerMs = lingerMs;
+    this.batchSize = batchSize;
+    synchronized (decisions) {
+      if (decisions.size() == MAX_DECISIONS) {
+        decisions.removeFirst();
+      }
+      decisions.addLast(new Decision(Instant.now().toString(), reason, window, lingerMs, batchSize));
+    }
+  }
+
+  /**
+   * Reads the reply meters and returns the rates since the last call.
+   */
+  private Window measure() {
+    long now = System.nanoTime();
+    double seconds = (now - lastNanos) / 1e9;
+    double sent = meterRegistry.find("replies.sent").counters().stream().mapToDouble(c -> c.count()).sum();
+    long acks = 0;
+    double ackMs = 0;
+    for (Timer timer : meterRegistry.find("replies.send").timers()) {
+      acks += timer.count();
+      ackMs += timer.totalTime(TimeUnit.MILLISECONDS);
+    }
+    long records = 0;
+    double bytes = 0;
+    for (DistributionSummary size : meterRegistry.find("cloudevent.size.out").summaries()) {
+      records += size.count();
+      bytes += size.totalAmount();
+    }
+    Window window = new Window(seconds > 0 ? (sent - lastSent) / seconds : 0,
+        acks > lastAcks ? (ackMs - lastAckMs) / (acks - lastAcks) : 0,
+        records > lastRecords ? (bytes - lastBytes) / (records - lastRecords) : 0);
+    lastNanos = now;
+    lastSent = sent;
+    lastAcks = acks;
+    lastAckMs = ackMs;
+    lastRecords = records;
+    lastBytes = bytes;
+    return window;
+  }
+
+  /**
+   * What was observed during one interval.
+   */
+  @Value
+  public static class Window {
+    double recordsPerSecond;
+    double ackLatencyMs;
+    double averageRecordSize;
+  }
+
+  /**
+   * A change of the producer settings.
+   */
+  @Value
+  public static class Decision {
+    String time;
+    String reason;
+    Window window;
+    int lingerMs;
+    int batchSize;
+  }
+}
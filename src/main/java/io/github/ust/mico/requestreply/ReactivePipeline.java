@@ -0,0 +1,163 @@
+package io.github.ust.mico.requestreply;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.kafka.KafkaConsumerConfig;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.github.ust.mico.requestreply.kafka.RecordFilter;
+import io.github.ust.mico.requestreply.kafka.RetryTopicRecoverer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.GroupedFlux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.kafka.receiver.KafkaReceiver;
+import reactor.kafka.receiver.ReceiverOptions;
+import reactor.kafka.receiver.ReceiverRecord;
+
+/**
+ * Consumes, processes and answers requests as a reactive stream instead of a
+ * listener container. Records are only fetched as fast as they are answered:
+ * each partition processes up to {@code kafka.reactive.partition-concurrency}
+ * requests at a time, and an offset is acknowledged once the replies to it and
+ * to all earlier records of its partition were acknowledged by the broker.
+ * Replies within a partition may be sent out of order unless the concurrency
+ * is 1. A record that fails is acknowledged once it is published to the retry
+ * topics, or to the dead-letter topic if it could not be deserialized. Only
+ * active if {@code kafka.listener-mode} is set to {@code reactive}.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kafka.listener-mode", havingValue = "reactive")
+public class ReactivePipeline {
+
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private KafkaConsumerConfig kafkaConsumerConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private RecordFilter recordFilter;
+
+    @Autowired
+    private RetryTopicRecoverer retryTopicRecoverer;
+
+    @Value("${kafka.input-topic}")
+    private String inputTopic;
+
+    /**
+     * Maximum number of requests of one partition processed at a time.
+     */
+    @Value("${kafka.reactive.partition-concurrency}")
+    private int partitionConcurrency;
+
+    /**
+     * Interval in which acknowledged offsets are committed.
+     */
+    @Value("${kafka.reactive.commit-interval}")
+    private Duration commitInterval;
+
+    private Scheduler scheduler;
+
+    private Disposable pipeline;
+
+    private Timer receiveTimer;
+
+    @PostConstruct
+    public void init() {
+        receiveTimer = Timer.builder("listener.receive").tag("mode", "reactive").register(meterRegistry);
+        Map<String, Object> properties = new HashMap<>(kafkaConsumerConfig.consumerConfigs());
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        ReceiverOptions<String, MicoCloudEventImpl<JsonNode>> options = ReceiverOptions
+                .<String, MicoCloudEventImpl<JsonNode>>create(properties)
+                .subscription(Collections.singleton(inputTopic)).commitInterval(commitInterval)
+                .addAssignListener(partitions -> log.info("Assigned partitions {}", partitions))
+                .addRevokeListener(partitions -> log.info("Revoked partitions {}", partitions));
+        // processing may wait for a handler slot or an in-flight slot, which must not block the receiver
+        scheduler = Schedulers.newElastic("reactive-pipeline", 60, true);
+        // a receiver cannot be subscribed again, a restart needs a new one
+        pipeline = Flux.defer(() -> KafkaReceiver.create(options).receive())
+                .groupBy(record -> record.receiverOffset().topicPartition())
+                .flatMap(this::processPartition, Integer.MAX_VALUE)
+                .doOnError(e -> log.error("Reactive pipeline failed, restarting it", e))
+                .retryBackoff(Long.MAX_VALUE, Duration.ofSeconds(1), Duration.ofSeconds(30))
+                .subscribe();
+        log.info("Processing '{}' reactively with up to {} requests per partition", inputTopic,
+                partitionConcurrency);
+    }
+
+    /**
+     * Processes the records of one partition concurrently and acknowledges
+     * their offsets in order.
+     */
+    private Flux<ReceiverRecord<String, MicoCloudEventImpl<JsonNode>>> processPartition(
+            GroupedFlux<?, ReceiverRecord<String, MicoCloudEventImpl<JsonNode>>> partition) {
+        return partition.publishOn(scheduler, partitionConcurrency)
+                .flatMapSequential(this::process, partitionConcurrency, 1)
+                .doOnNext(record -> record.receiverOffset().acknowledge());
+    }
+
+    private Mono<ReceiverRecord<String, MicoCloudEventImpl<JsonNode>>> process(
+            ReceiverRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        if (record.value() == null && recordFilter.discard(record)) {
+            return Mono.just(record);
+        }
+        if (record.value() == null) {
+            // could not be deserialized, goes to the dead-letter topic
+            return recover(record, null).thenReturn(record);
+        }
+        long start = System.nanoTime();
+        return Mono.fromFuture(service.processMessageAcknowledged(record.value()))
+                .doOnError(e -> log.error("Could not process message '{}'", record.value().getId(), e))
+                .onErrorResume(e -> recover(record, e))
+                .doFinally(signal -> receiveTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                .thenReturn(record);
+    }
+
+    /**
+     * Hands a failed record to the retry topics. Publishing waits for the
+     * broker, so it runs on the pipeline's scheduler rather than on the handler
+     * or producer thread that completed the processing. Until it succeeds the
+     * record is not acknowledged, later records of its partition are processed
+     * but not acknowledged either.
+     */
+    private Mono<Void> recover(ReceiverRecord<String, MicoCloudEventImpl<JsonNode>> record, Throwable e) {
+        return Mono.<Void>fromRunnable(() -> retryTopicRecoverer.accept(record,
+                e == null || e instanceof Exception ? (Exception) e : new CompletionException(e)))
+                .subscribeOn(scheduler)
+                .doOnError(failure -> log.error(
+                        "Could not hand record at offset {} of partition {}-{} to the retry topics, trying again",
+                        record.offset(), record.topic(), record.partition(), failure))
+                .retryBackoff(Long.MAX_VALUE, Duration.ofSeconds(1), Duration.ofSeconds(30));
+    }
+
+    @PreDestroy
+    public void close() {
+        pipeline.dispose();
+        scheduler.dispose();
+    }
+}
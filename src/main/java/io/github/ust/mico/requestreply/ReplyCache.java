@@ -0,0 +1,111 @@
+package io.github.ust.mico.requestreply;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import io.github.ust.mico.requestreply.kafka.CloudEventFormat;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Remembers the reply to each request by the id of the request event. A
+ * request that is delivered again, e.g. after a rebalance or a re-seek, gets
+ * the stored reply instead of a newly computed one with a new id. Replies are
+ * kept serialized as Smile, which also keeps binary data as it is, so the
+ * cache can be bounded by their size in bytes as well as by age. A stored
+ * reply is only deserialized again when a request is redelivered.
+ */
+@Slf4j
+@Component
+public class ReplyCache {
+
+  /**
+   * Estimated size of an entry in addition to its serialized reply, for the
+   * request id and the bookkeeping of the cache.
+   */
+  private static final int ENTRY_OVERHEAD = 256;
+
+  private static final CloudEventFormat FORMAT = CloudEventFormat.SMILE;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${reply-cache.enabled}")
+  private boolean enabled;
+
+  /**
+   * Maximum size of the serialized replies kept, including the estimated
+   * overhead of each entry.
+   */
+  @Value("${reply-cache.max-memory}")
+  private DataSize maxMemory;
+
+  /**
+   * How long a reply is kept after it was created.
+   */
+  @Value("${reply-cache.expire-after-write}")
+  private Duration expireAfterWrite;
+
+  private Cache<String, byte[]> replies;
+
+  @PostConstruct
+  public void init() {
+    replies = Caffeine.newBuilder().maximumWeight(maxMemory.toBytes())
+        .<String, byte[]>weigher((id, reply) -> ENTRY_OVERHEAD + 2 * id.length() + reply.length)
+        .expireAfterWrite(expireAfterWrite).recordStats().build();
+    CaffeineCacheMetrics.monitor(meterRegistry, replies, "replies");
+  }
+
+  /**
+   * Returns the stored reply to the request.
+   *
+   * @param request the request event
+   * @return the reply, or {@code null} if none is stored
+   */
+  public MicoCloudEventImpl<JsonNode> getIfPresent(MicoCloudEventImpl<JsonNode> request) {
+    if (!enabled || request.getId() == null) {
+      return null;
+    }
+    byte[] reply = replies.getIfPresent(request.getId());
+    if (reply == null) {
+      return null;
+    }
+    try {
+      return FORMAT.getReader().readValue(reply);
+    } catch (IOException e) {
+      log.warn("Could not read the stored reply to request '{}', computing it again", request.getId(), e);
+      replies.invalidate(request.getId());
+      return null;
+    }
+  }
+
+  /**
+   * Stores the reply to the request. Requests that are delivered again while
+   * their reply is still being computed are answered twice.
+   *
+   * @param request the request event
+   * @param reply   the reply
+   */
+  public void put(MicoCloudEventImpl<JsonNode> request, MicoCloudEventImpl<JsonNode> reply) {
+    if (enabled && request.getId() != null) {
+      try {
+        replies.put(request.getId(), FORMAT.getWriter().writeValueAsBytes(reply));
+      } catch (IOException e) {
+        log.warn("Could not store the reply to request '{}'", request.getId(), e);
+      }
+    }
+  }
+}
@@ -0,0 +1,125 @@
+package io.github.ust.mico.requestreply;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.configuration.RetryTopicConfig;
+import io.github.ust.mico.requestreply.kafka.KafkaConsumerConfig;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.github.ust.mico.requestreply.kafka.RetryTopicErrorHandler;
+import io.github.ust.mico.requestreply.kafka.RetryTopicRecoverer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Consumes the retry topics, each on a consumer of its own, so a long delay
+ * does not hold up the shorter ones. A record is processed once it is due; as
+ * all records of a retry topic have the same delay, waiting for the first one
+ * never delays a record behind it. A record failing again goes to the next
+ * retry topic or the dead-letter topic.
+ * <p>
+ * The consumers are only started once the application is ready, so they do
+ * not hold up the listener of the input topic during startup.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "kafka.retry.enabled", havingValue = "true", matchIfMissing = true)
+public class RetryTopicListener {
+
+    /**
+     * Default of max.poll.interval.ms, on top of which the delay is waited.
+     */
+    private static final long MAX_PROCESSING_TIME_MS = 300_000;
+
+    @Autowired
+    private Service service;
+
+    @Autowired
+    private RetryTopicConfig retryTopicConfig;
+
+    @Autowired
+    private KafkaConsumerConfig kafkaConsumerConfig;
+
+    @Autowired
+    private RetryTopicRecoverer retryTopicRecoverer;
+
+    @Value("${kafka.input-topic}")
+    private String inputTopic;
+
+    @Value("${kafka.missing-topics-fatal}")
+    private boolean missingTopicsFatal;
+
+    private final List<KafkaMessageListenerContainer<String, MicoCloudEventImpl<JsonNode>>> containers = new ArrayList<>();
+
+    private final CountDownLatch stopping = new CountDownLatch(1);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        List<String> retryTopics = retryTopicConfig.retryTopics(inputTopic);
+        for (int i = 0; i < retryTopics.size(); i++) {
+            Duration delay = retryTopicConfig.getDelays().get(i);
+            Map<String, Object> properties = new HashMap<>(kafkaConsumerConfig.consumerConfigs());
+            // records published before the assignment must not be skipped
+            properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+            properties.put(ConsumerConfig.MAX_POLL_INTERVAL_MS_CONFIG,
+                    (int) Math.min(Integer.MAX_VALUE, delay.toMillis() + MAX_PROCESSING_TIME_MS));
+            ContainerProperties containerProperties = new ContainerProperties(retryTopics.get(i));
+            containerProperties.setMissingTopicsFatal(missingTopicsFatal);
+            containerProperties
+                    .setMessageListener((MessageListener<String, MicoCloudEventImpl<JsonNode>>) this::receive);
+            KafkaMessageListenerContainer<String, MicoCloudEventImpl<JsonNode>> container = new KafkaMessageListenerContainer<>(
+                    new DefaultKafkaConsumerFactory<>(properties), containerProperties);
+            container.setErrorHandler(new RetryTopicErrorHandler(retryTopicRecoverer));
+            container.setBeanName("retryTopic" + i);
+            container.start();
+            containers.add(container);
+            log.info("Retrying failed records from topic '{}' after {}", retryTopics.get(i), delay);
+        }
+    }
+
+    /**
+     * Processes a record of a retry topic once it is due. Failures are thrown,
+     * so the error handler passes the record on.
+     */
+    private void receive(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        long wait = RetryTopicRecoverer.due(record) - System.currentTimeMillis();
+        try {
+            // on shutdown the waiting records are retried right away
+            if (wait > 0 && stopping.await(wait, TimeUnit.MILLISECONDS)) {
+                log.debug("Retrying record at offset {} of partition {}-{} early on shutdown", record.offset(),
+                        record.topic(), record.partition());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Retrying CloudEvent message (attempt {}): {}", RetryTopicRecoverer.attempt(record), record.value());
+        service.processMessage(record.value()).join();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopping.countDown();
+        containers.forEach(KafkaMessageListenerContainer::stop);
+    }
+}
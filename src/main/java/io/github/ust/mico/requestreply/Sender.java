@@ -1,13 +1,39 @@
 package io.github.ust.mico.requestreply;
 
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
 import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.support.SendResult;
 import org.springframework.stereotype.Component;
+import org.springframework.util.concurrent.ListenableFuture;
 
+import io.github.ust.mico.requestreply.claimcheck.ClaimCheck;
+import io.github.ust.mico.requestreply.kafka.CloudEventSerializer;
 import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Component
@@ -17,15 +43,263 @@ public class Sender {
   @Autowired
   private KafkaTemplate<String, MicoCloudEventImpl<JsonNode>> kafkaTemplate;
 
+  @Autowired
+  private KafkaListenerEndpointRegistry listenerRegistry;
+
+  @Autowired
+  private ClaimCheck claimCheck;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
   @Value("${kafka.output-topic}")
   private String topic;
 
+  /**
+   * Maximum number of replies handed to the producer but not yet acknowledged
+   * by the broker.
+   */
+  @Value("${kafka.sender.max-in-flight}")
+  private int maxInFlight;
+
+  /**
+   * How long to wait for a free in-flight slot before a send fails.
+   */
+  @Value("${kafka.sender.send-timeout-ms}")
+  private long sendTimeoutMs;
+
+  /**
+   * How long to wait on shutdown for outstanding replies to be acknowledged.
+   */
+  @Value("${kafka.sender.shutdown-timeout-ms}")
+  private long shutdownTimeoutMs;
+
+  private Semaphore inFlight;
+
+  private final AtomicBoolean listenersPaused = new AtomicBoolean();
+
+  /**
+   * Held shared while a record is handed to the producer and exclusively while
+   * the producer is replaced.
+   */
+  private final ReadWriteLock producerLock = new ReentrantReadWriteLock();
+
+  private Counter sentCounter;
+
+  private Counter failedCounter;
+
+  /**
+   * Time from handing a reply to the producer until the broker acknowledged it,
+   * per return topic.
+   */
+  private final Map<String, Timer> ackTimers = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void init() {
+    inFlight = new Semaphore(maxInFlight);
+    sentCounter = meterRegistry.counter("replies.sent");
+    failedCounter = meterRegistry.counter("replies.failed");
+    meterRegistry.gauge("replies.in-flight", inFlight, permits -> maxInFlight - permits.availablePermits());
+  }
+
   public void send(MicoCloudEventImpl<JsonNode> cloudEvent) {
     send(cloudEvent, topic);
   }
 
   public void send(MicoCloudEventImpl<JsonNode> cloudEvent, String topic) {
     log.info("sending msg:'{}' to topic:'{}'", cloudEvent, topic);
-    kafkaTemplate.send(topic, cloudEvent);
+    doSend(cloudEvent, topic);
+  }
+
+  /**
+   * Sends the event to its next hop. The routing slip is a stack, its last
+   * entry lists the topics of the next hop. The event is sent to all of them
+   * with that entry removed from its slip. It is encoded only once, so all
+   * records of the fan-out go to the producer back to back and end up in the
+   * same batches. Without a routing slip the event goes to its return topic.
+   * Large data is moved into the claim-check store once for all of them.
+   *
+   * @param cloudEvent the event to send
+   * @return completes when the broker acknowledged all records of the hop
+   */
+  public CompletableFuture<Void> sendToNextHop(MicoCloudEventImpl<JsonNode> cloudEvent) {
+    log.info("sending msg:'{}' to its next hop", cloudEvent);
+    return route(cloudEvent);
+  }
+
+  /**
+   * Hands a batch of events to the producer, each one to its next hop. The
+   * producer groups them into as few requests as possible. An event that cannot
+   * be handed over does not stop the rest of the batch, its future fails
+   * instead, so the caller learns which events were not sent.
+   *
+   * @param cloudEvents the events to send
+   * @return one future per event, in the order of the events, that completes
+   *         when the broker acknowledged all records of its hop or fails if
+   *         the event could not be sent
+   */
+  public List<CompletableFuture<Void>> send(List<MicoCloudEventImpl<JsonNode>> cloudEvents) {
+    log.info("sending batch of {} msgs", cloudEvents.size());
+    List<CompletableFuture<Void>> acks = new ArrayList<>(cloudEvents.size());
+    for (MicoCloudEventImpl<JsonNode> cloudEvent : cloudEvents) {
+      try {
+        acks.add(route(cloudEvent));
+      } catch (RuntimeException e) {
+        log.error("Could not send msg:'{}'", cloudEvent.getId(), e);
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        acks.add(failed);
+      }
+    }
+    return acks;
+  }
+
+  private CompletableFuture<Void> route(MicoCloudEventImpl<JsonNode> cloudEvent) {
+    cloudEvent = claimCheck.checkIn(cloudEvent);
+    LinkedList<List<String>> routingSlip = cloudEvent.getRoutingSlipOrNull();
+    if (routingSlip == null || routingSlip.isEmpty()) {
+      return doSend(cloudEvent, returnTopicOf(cloudEvent));
+    }
+    // the event may be a cached reply, so pop from the slip of a copy
+    MicoCloudEventImpl<JsonNode> forwarded = new MicoCloudEventImpl<>(cloudEvent);
+    List<String> topics = forwarded.getRoutingSlipOrNull().removeLast();
+    if (topics == null || topics.isEmpty()) {
+      return doSend(forwarded, returnTopicOf(forwarded));
+    }
+    CompletableFuture<?>[] acks = new CompletableFuture<?>[topics.size()];
+    CloudEventSerializer.withSharedEncoding(() -> {
+      for (int i = 0; i < acks.length; i++) {
+        acks[i] = doSend(forwarded, topics.get(i));
+      }
+    });
+    return CompletableFuture.allOf(acks);
+  }
+
+  private static String returnTopicOf(MicoCloudEventImpl<JsonNode> cloudEvent) {
+    String returnTopic = cloudEvent.getReturnTopicOrNull();
+    return returnTopic == null ? "" : returnTopic;
+  }
+
+  /**
+   * Sends the event once an in-flight slot is free. If all slots are taken the
+   * listener containers are paused until half of the slots are free again, so
+   * the consumers keep polling without fetching new requests.
+   *
+   * @return completes when the broker acknowledged the record
+   */
+  private CompletableFuture<Void> doSend(MicoCloudEventImpl<JsonNode> cloudEvent, String topic) {
+    acquireInFlightSlot();
+    long start = System.nanoTime();
+    CompletableFuture<Void> ack = new CompletableFuture<>();
+    producerLock.readLock().lock();
+    try {
+      kafkaTemplate.send(topic, cloudEvent).addCallback(result -> {
+        inFlight.release();
+        sentCounter.increment();
+        ackTimer(topic).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        resumeListenersIfDrained();
+        ack.complete(null);
+      }, e -> {
+        inFlight.release();
+        failedCounter.increment();
+        resumeListenersIfDrained();
+        log.error("Failed to send msg:'{}' to topic:'{}'", cloudEvent.getId(), topic, e);
+        ack.completeExceptionally(e);
+      });
+      return ack;
+    } catch (RuntimeException e) {
+      inFlight.release();
+      failedCounter.increment();
+      throw e;
+    } finally {
+      producerLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Hands a record of another component, e.g. a request of the request-reply
+   * client, to the shared producer. Unlike replies it takes no in-flight slot,
+   * but it is held back while the producer is replaced like them.
+   *
+   * @param topic      the topic to send to
+   * @param cloudEvent the event to send
+   * @return the result of the template
+   */
+  public ListenableFuture<SendResult<String, MicoCloudEventImpl<JsonNode>>> sendOnSharedProducer(String topic,
+      MicoCloudEventImpl<JsonNode> cloudEvent) {
+    producerLock.readLock().lock();
+    try {
+      return kafkaTemplate.send(topic, cloudEvent);
+    } finally {
+      producerLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Runs the given action, e.g. replacing the producer, while no record is
+   * being handed to the producer. Sends wait until the action is done, so it
+   * should not block for long.
+   *
+   * @param action the action to run
+   * @return the result of the action
+   */
+  public <T> T whileNotSending(Supplier<T> action) {
+    producerLock.writeLock().lock();
+    try {
+      return action.get();
+    } finally {
+      producerLock.writeLock().unlock();
+    }
+  }
+
+  private Timer ackTimer(String topic) {
+    Timer timer = ackTimers.get(topic);
+    if (timer == null) {
+      timer = ackTimers.computeIfAbsent(topic,
+          t -> Timer.builder("replies.send").tag("topic", t).register(meterRegistry));
+    }
+    return timer;
+  }
+
+  private void acquireInFlightSlot() {
+    if (inFlight.tryAcquire()) {
+      return;
+    }
+    if (listenersPaused.compareAndSet(false, true)) {
+      log.warn("{} replies in flight, pausing the listener containers", maxInFlight);
+      listenerRegistry.getListenerContainers().forEach(MessageListenerContainer::pause);
+    }
+    try {
+      if (!inFlight.tryAcquire(sendTimeoutMs, TimeUnit.MILLISECONDS)) {
+        throw new KafkaException("Timed out after " + sendTimeoutMs + " ms waiting for an in-flight slot");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new KafkaException("Interrupted while waiting for an in-flight slot", e);
+    }
+  }
+
+  private void resumeListenersIfDrained() {
+    if (inFlight.availablePermits() >= maxInFlight / 2 && listenersPaused.compareAndSet(true, false)) {
+      log.info("In-flight replies drained, resuming the listener containers");
+      listenerRegistry.getListenerContainers().forEach(MessageListenerContainer::resume);
+    }
+  }
+
+  /**
+   * Flushes the producer and waits until every outstanding reply has been
+   * acknowledged, so scaling down does not drop replies. The listener
+   * containers are already stopped at this point.
+   */
+  @PreDestroy
+  public void flush() throws InterruptedException {
+    kafkaTemplate.flush();
+    if (inFlight.tryAcquire(maxInFlight, shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+      inFlight.release(maxInFlight);
+      log.info("All replies acknowledged before shutdown");
+    } else {
+      log.warn("{} replies still unacknowledged after {} ms", maxInFlight - inFlight.availablePermits(),
+          shutdownTimeoutMs);
+    }
   }
 }
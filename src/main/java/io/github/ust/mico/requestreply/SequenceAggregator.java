@@ -0,0 +1,473 @@
+package io.github.ust.mico.requestreply;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import io.github.ust.mico.requestreply.claimcheck.ClaimCheck;
+import io.github.ust.mico.requestreply.kafka.CloudEventDeserializer;
+import io.github.ust.mico.requestreply.kafka.CloudEventSerializer;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.github.ust.mico.requestreply.kafka.RawJsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reassembles split requests. Parts carry a {@code sequenceId}, their
+ * {@code sequenceNumber} (starting at 1) and the {@code sequenceSize}. Parts are
+ * buffered until all of them arrived, then they are combined into one request
+ * whose data is the array of the data of the parts, in sequence order.
+ * <p>
+ * The parts buffered in memory are limited by an estimated size. Beyond it, the
+ * least recently extended sequences are spilled to local files, and their
+ * further parts are appended there.
+ * <p>
+ * Buffered parts are acknowledged right away. A sequence that does not
+ * complete in time, whose parts cannot be buffered or that is still open on
+ * shutdown is answered with an error reply to its first received part, so the
+ * requester learns that it has to send the sequence again. Parts that cannot be
+ * buffered at all, because their sequence is too long, too many sequences are
+ * open or their sequence size does not match, fail and take the retry path.
+ * Buffered parts are lost if the service crashes.
+ */
+@Slf4j
+@Component
+public class SequenceAggregator {
+
+  /**
+   * Estimated size of the attributes of a part, in addition to its data.
+   */
+  private static final long PART_OVERHEAD = 512;
+
+  @Autowired
+  private ClaimCheck claimCheck;
+
+  @Autowired
+  private Sender sender;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Value("${sequence.enabled}")
+  private boolean enabled;
+
+  /**
+   * How long after its first part a sequence must be complete.
+   */
+  @Value("${sequence.timeout}")
+  private Duration timeout;
+
+  /**
+   * Estimated size of the parts buffered in memory, beyond which sequences are
+   * spilled to disk.
+   */
+  @Value("${sequence.max-memory}")
+  private DataSize maxMemory;
+
+  /**
+   * Maximum number of open sequences, in memory and on disk.
+   */
+  @Value("${sequence.max-open}")
+  private int maxOpen;
+
+  /**
+   * Maximum number of parts of a sequence.
+   */
+  @Value("${sequence.max-parts}")
+  private int maxParts;
+
+  @Value("${sequence.spill-directory}")
+  private String spillDirectory;
+
+  private final CloudEventSerializer serializer = new CloudEventSerializer();
+
+  private final CloudEventDeserializer deserializer = new CloudEventDeserializer();
+
+  /**
+   * Open sequences by id, least recently extended first.
+   */
+  private final Map<String, OpenSequence> sequences = new LinkedHashMap<>(16, 0.75f, true);
+
+  private Path spillPath;
+
+  private long memoryUsed;
+
+  private int spilledSequences;
+
+  private ScheduledExecutorService sweeper;
+
+  private Counter completedCounter;
+
+  private Counter timeoutCounter;
+
+  private Counter rejectedCounter;
+
+  private Counter spillCounter;
+
+  @PostConstruct
+  public void init() throws IOException {
+    spillPath = Paths.get(spillDirectory);
+    Files.createDirectories(spillPath);
+    // files of a previous run belong to sequences that are gone
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(spillPath, "sequence-*.parts")) {
+      for (Path file : files) {
+        Files.deleteIfExists(file);
+      }
+    }
+    completedCounter = meterRegistry.counter("sequence.completed");
+    timeoutCounter = meterRegistry.counter("sequence.timeouts");
+    rejectedCounter = meterRegistry.counter("sequence.rejected");
+    spillCounter = meterRegistry.counter("sequence.spills");
+    Gauge.builder("sequence.open", this, aggregator -> aggregator.openSequences()).register(meterRegistry);
+    Gauge.builder("sequence.spilled", this, aggregator -> aggregator.spilledSequences()).register(meterRegistry);
+    Gauge.builder("sequence.memory", this, aggregator -> aggregator.memoryUsed()).baseUnit("bytes")
+        .register(meterRegistry);
+    sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "sequence-timeouts");
+      thread.setDaemon(true);
+      return thread;
+    });
+    sweeper.scheduleWithFixedDelay(this::discardTimedOut, 1, 1, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void close() {
+    sweeper.shutdownNow();
+    List<MicoCloudEventImpl<JsonNode>> heads = new ArrayList<>();
+    synchronized (this) {
+      sequences.values().forEach(sequence -> {
+        heads.add(sequence.head);
+        release(sequence);
+      });
+      sequences.clear();
+    }
+    heads.forEach(head -> abandon(head,
+        new IllegalStateException("The service shut down before sequence '" + head.getSequenceIdOrNull()
+            + "' was complete")));
+  }
+
+  /**
+   * Takes a received request. Requests that are not part of a sequence are
+   * returned as they are.
+   *
+   * @param cloudEvent the received request
+   * @return the request to process: the event itself, the combined request if
+   *         this part completed its sequence, or nothing if the part was
+   *         buffered
+   * @throws IllegalStateException if the part cannot be buffered
+   */
+  public Optional<MicoCloudEventImpl<JsonNode>> offer(MicoCloudEventImpl<JsonNode> cloudEvent) {
+    String sequenceId = cloudEvent.getSequenceIdOrNull();
+    Integer sequenceSize = cloudEvent.getSequenceSizeOrNull();
+    int size = sequenceSize == null ? 0 : sequenceSize;
+    if (!enabled || sequenceId == null || size <= 1) {
+      return Optional.of(cloudEvent);
+    }
+    if (size > maxParts) {
+      rejectedCounter.increment();
+      throw new IllegalStateException(
+          "Message '" + cloudEvent.getId() + "' belongs to a sequence of more than " + maxParts + " parts");
+    }
+    Integer sequenceNumber = cloudEvent.getSequenceNumberOrNull();
+    int number = sequenceNumber == null ? 0 : sequenceNumber;
+    if (number < 1 || number > size) {
+      log.warn("Processing message '{}' on its own, its sequence number {} is not within 1..{}",
+          cloudEvent.getId(), number, size);
+      return Optional.of(cloudEvent);
+    }
+    Map<MicoCloudEventImpl<JsonNode>, Throwable> abandoned = new LinkedHashMap<>();
+    Optional<MicoCloudEventImpl<JsonNode>> request = add(sequenceId, number, size, cloudEvent, abandoned);
+    abandoned.forEach(this::abandon);
+    return request;
+  }
+
+  /**
+   * Buffers the part. If its sequence has to be given up, the sequence is
+   * removed and its first received part is put into {@code abandoned} with the
+   * failure, to be answered once the lock is released.
+   */
+  private synchronized Optional<MicoCloudEventImpl<JsonNode>> add(String sequenceId, int number, int size,
+      MicoCloudEventImpl<JsonNode> part, Map<MicoCloudEventImpl<JsonNode>, Throwable> abandoned) {
+    OpenSequence sequence = sequences.get(sequenceId);
+    if (sequence == null) {
+      if (sequences.size() >= maxOpen) {
+        rejectedCounter.increment();
+        throw new IllegalStateException(
+            "Message '" + part.getId() + "' cannot start a sequence, already " + maxOpen + " sequences are open");
+      }
+      sequence = new OpenSequence(size, System.currentTimeMillis() + timeout.toMillis());
+      sequences.put(sequenceId, sequence);
+    } else if (sequence.size != size) {
+      rejectedCounter.increment();
+      throw new IllegalStateException("The sequence size " + size + " of message '" + part.getId()
+          + "' differs from " + sequence.size + " of sequence '" + sequenceId + "'");
+    }
+    if (sequence.received.get(number - 1)) {
+      log.info("Ignoring duplicate part {} of sequence '{}'", number, sequenceId);
+      return Optional.empty();
+    }
+    if (sequence.head == null || number < sequence.headNumber) {
+      // only the attributes are kept, the data is buffered with the part
+      sequence.head = new MicoCloudEventImpl<>(part).setData(null).setDataRef(null);
+      sequence.headNumber = number;
+    }
+    try {
+      if (sequence.spillFile != null) {
+        appendToSpillFile(sequence, part);
+      } else {
+        long partSize = sizeOf(part);
+        sequence.parts[number - 1] = part;
+        sequence.memory += partSize;
+        memoryUsed += partSize;
+      }
+      sequence.received.set(number - 1);
+      if (sequence.received.cardinality() == size) {
+        MicoCloudEventImpl<JsonNode> combined = combine(sequence);
+        remove(sequenceId, sequence);
+        completedCounter.increment();
+        return Optional.of(combined);
+      }
+      spillUntilWithinBudget();
+    } catch (IOException e) {
+      log.error("Giving up sequence '{}', its parts could not be buffered on disk", sequenceId, e);
+      remove(sequenceId, sequence);
+      rejectedCounter.increment();
+      abandoned.put(sequence.head, e);
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Builds the combined request from the attributes of the first part and the
+   * data of all parts. The data of each part is put into place as soon as the
+   * part is read, spilled parts are read one at a time, so the parts are not
+   * held in memory next to the combined data. Parts whose data was moved to the
+   * claim-check store are resolved here.
+   */
+  private MicoCloudEventImpl<JsonNode> combine(OpenSequence sequence) throws IOException {
+    ArrayNode data = JsonNodeFactory.instance.arrayNode(sequence.size);
+    for (int i = 0; i < sequence.size; i++) {
+      data.addNull();
+    }
+    Consumer<MicoCloudEventImpl<JsonNode>> place = part -> data
+        .set(part.getSequenceNumberOrNull() - 1, claimCheck.dataOf(part).orElse(NullNode.getInstance()));
+    for (int i = 0; i < sequence.parts.length; i++) {
+      if (sequence.parts[i] != null) {
+        place.accept(sequence.parts[i]);
+        sequence.parts[i] = null;
+      }
+    }
+    if (sequence.spillFile != null) {
+      readSpillFile(sequence, place);
+    }
+    MicoCloudEventImpl<JsonNode> combined = new MicoCloudEventImpl<>(sequence.head);
+    combined.setSequenceNumber(null).setSequenceSize(null).setData(data).setDataRef(null);
+    return combined;
+  }
+
+  /**
+   * Answers a sequence that was given up with an error reply to its first
+   * received part.
+   */
+  private void abandon(MicoCloudEventImpl<JsonNode> head, Throwable error) {
+    try {
+      sender.sendToNextHop(Service.createErrorReply(head, error)).whenComplete((result, e) -> {
+        if (e != null) {
+          log.error("Could not answer incomplete sequence '{}'", head.getSequenceIdOrNull(), e);
+        }
+      });
+    } catch (RuntimeException e) {
+      log.error("Could not answer incomplete sequence '{}'", head.getSequenceIdOrNull(), e);
+    }
+  }
+
+  /**
+   * Moves the least recently extended sequences to disk until the parts in
+   * memory are within the budget again.
+   */
+  private void spillUntilWithinBudget() throws IOException {
+    Iterator<OpenSequence> candidates = sequences.values().iterator();
+    while (memoryUsed > maxMemory.toBytes() && candidates.hasNext()) {
+      OpenSequence sequence = candidates.next();
+      if (sequence.spillFile != null || sequence.memory == 0) {
+        continue;
+      }
+      sequence.spillFile = Files.createTempFile(spillPath, "sequence-", ".parts");
+      spilledSequences++;
+      spillCounter.increment();
+      for (int i = 0; i < sequence.parts.length; i++) {
+        if (sequence.parts[i] != null) {
+          appendToSpillFile(sequence, sequence.parts[i]);
+          sequence.parts[i] = null;
+        }
+      }
+      memoryUsed -= sequence.memory;
+      sequence.memory = 0;
+    }
+  }
+
+  private void appendToSpillFile(OpenSequence sequence, MicoCloudEventImpl<JsonNode> part) throws IOException {
+    byte[] bytes = serializer.serialize(null, part);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(sequence.spillFile, StandardOpenOption.APPEND)))) {
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+
+  private void readSpillFile(OpenSequence sequence, Consumer<MicoCloudEventImpl<JsonNode>> consumer)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sequence.spillFile)))) {
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        consumer.accept(deserializer.deserialize(null, bytes));
+      }
+    }
+  }
+
+  private void discardTimedOut() {
+    long now = System.currentTimeMillis();
+    Map<MicoCloudEventImpl<JsonNode>, Throwable> timedOut = new LinkedHashMap<>();
+    synchronized (this) {
+      Iterator<Map.Entry<String, OpenSequence>> open = sequences.entrySet().iterator();
+      while (open.hasNext()) {
+        Map.Entry<String, OpenSequence> entry = open.next();
+        OpenSequence sequence = entry.getValue();
+        if (sequence.deadline <= now) {
+          timedOut.put(sequence.head, new TimeoutException("Sequence '" + entry.getKey() + "' received only "
+              + sequence.received.cardinality() + " of " + sequence.size + " parts within " + timeout));
+          open.remove();
+          release(sequence);
+          timeoutCounter.increment();
+        }
+      }
+    }
+    timedOut.forEach(this::abandon);
+  }
+
+  private void remove(String sequenceId, OpenSequence sequence) {
+    sequences.remove(sequenceId);
+    release(sequence);
+  }
+
+  private void release(OpenSequence sequence) {
+    memoryUsed -= sequence.memory;
+    sequence.memory = 0;
+    if (sequence.spillFile != null) {
+      deleteSpillFile(sequence);
+    }
+  }
+
+  private void deleteSpillFile(OpenSequence sequence) {
+    if (sequence.spillFile == null) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(sequence.spillFile);
+    } catch (IOException e) {
+      log.warn("Could not delete spill file '{}'", sequence.spillFile, e);
+    }
+    sequence.spillFile = null;
+    spilledSequences--;
+  }
+
+  private static long sizeOf(MicoCloudEventImpl<JsonNode> part) {
+    JsonNode data = part.getRawData();
+    if (data == null) {
+      return PART_OVERHEAD;
+    }
+    return PART_OVERHEAD
+        + (data instanceof RawJsonNode ? ((RawJsonNode) data).getBytes().length : data.toString().length());
+  }
+
+  private synchronized int openSequences() {
+    return sequences.size();
+  }
+
+  private synchronized int spilledSequences() {
+    return spilledSequences;
+  }
+
+  private synchronized long memoryUsed() {
+    return memoryUsed;
+  }
+
+  private static class OpenSequence {
+
+    private final int size;
+
+    private final long deadline;
+
+    private final BitSet received;
+
+    /**
+     * The attributes of the received part with the lowest number.
+     */
+    private MicoCloudEventImpl<JsonNode> head;
+
+    private int headNumber;
+
+    /**
+     * The parts in memory by sequence number, all null while spilled.
+     */
+    private final MicoCloudEventImpl<JsonNode>[] parts;
+
+    /**
+     * Estimated size of the parts in memory.
+     */
+    private long memory;
+
+    private Path spillFile;
+
+    @SuppressWarnings("unchecked")
+    OpenSequence(int size, long deadline) {
+      this.size = size;
+      this.deadline = deadline;
+      this.received = new BitSet(size);
+      this.parts = new MicoCloudEventImpl[size];
+    }
+  }
+}
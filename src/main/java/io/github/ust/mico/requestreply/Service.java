@@ -1,50 +1,270 @@
 package io.github.ust.mico.requestreply;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Component;
 
+import io.github.ust.mico.requestreply.claimcheck.ClaimCheck;
+import io.github.ust.mico.requestreply.handler.HandlerRegistry;
 import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 @Component
 public class Service {
 
-  /**
-   * Used for messaging via stomp and websockets
-   */
   @Autowired
-  SimpMessagingTemplate websocketsTemplate;
+  private MessagingBridge messagingBridge;
 
   @Autowired
   private Sender sender;
 
-  public void processMessage(MicoCloudEventImpl<JsonNode> cloudEvent) {
+  @Autowired
+  private HandlerRegistry handlerRegistry;
+
+  @Autowired
+  private ReplyCache replyCache;
+
+  @Autowired
+  private DeadlineScheduler deadlineScheduler;
+
+  @Autowired
+  private SequenceAggregator sequenceAggregator;
+
+  @Autowired
+  private ClaimCheck claimCheck;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private StartupTimeline startupTimeline;
+
+  private Timer processTimer;
+
+  private Timer processBatchTimer;
+
+  @PostConstruct
+  public void init() {
+    processTimer = Timer.builder("service.process").tag("mode", "record").register(meterRegistry);
+    processBatchTimer = Timer.builder("service.process").tag("mode", "batch").register(meterRegistry);
+  }
+
+  /**
+   * Processes a request. The reply is computed by the handler of the request
+   * type on the handler executor, the returned future completes once the reply
+   * is handed to the sender. Expired events are dropped, parts of incomplete
+   * sequences are buffered.
+   *
+   * @param cloudEvent the request event
+   * @return completes when the event is answered, dropped or buffered
+   */
+  public CompletableFuture<Void> processMessage(MicoCloudEventImpl<JsonNode> cloudEvent) {
+    return process(cloudEvent, false);
+  }
+
+  /**
+   * Processes a request like {@link #processMessage}, but the returned future
+   * only completes once the broker acknowledged the reply, so the offset of the
+   * request can be committed afterwards.
+   *
+   * @param cloudEvent the request event
+   * @return completes when the reply is acknowledged, or the event is dropped
+   *         or buffered
+   */
+  public CompletableFuture<Void> processMessageAcknowledged(MicoCloudEventImpl<JsonNode> cloudEvent) {
+    return process(cloudEvent, true);
+  }
+
+  private CompletableFuture<Void> process(MicoCloudEventImpl<JsonNode> cloudEvent, boolean untilAcknowledged) {
+    if (!deadlineScheduler.admit(cloudEvent)) {
+      return CompletableFuture.completedFuture(null);
+    }
+    long start = System.nanoTime();
+    startupTimeline.recordReceived();
     log.info("Input message to process: '{}'", cloudEvent);
 
+    Optional<MicoCloudEventImpl<JsonNode>> request;
+    try {
+      request = sequenceAggregator.offer(cloudEvent);
+    } catch (RuntimeException e) {
+      log.error("Could not answer message '{}'", cloudEvent.getId(), e);
+      CompletableFuture<Void> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    if (!request.isPresent()) {
+      processTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return CompletableFuture.completedFuture(null);
+    }
+    return reply(request.get()).thenCompose(outMsg -> {
+      messagingBridge.publish(request.get(), outMsg);
+
+      CompletableFuture<Void> acknowledged = sender.sendToNextHop(outMsg);
+      acknowledged.thenRun(startupTimeline::recordReplied);
+      deadlineScheduler.completed(cloudEvent);
+      processTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      return untilAcknowledged ? acknowledged : CompletableFuture.<Void>completedFuture(null);
+    }).whenComplete((result, e) -> {
+      if (e != null) {
+        log.error("Could not answer message '{}'", cloudEvent.getId(), e);
+      }
+    });
+  }
+
+  /**
+   * Processes all events of one poll batch. The replies are computed
+   * concurrently and handed to the sender together once all are done. An event
+   * that cannot be processed or whose reply cannot be sent is logged and
+   * returned with its failure, the rest of the batch is still answered.
+   * Expired events are dropped, parts of incomplete sequences are buffered.
+   *
+   * @param cloudEvents the events of the batch
+   * @return completes when the broker acknowledged the replies of the batch,
+   *         with the events that could not be answered and their failures
+   */
+  public CompletableFuture<Map<MicoCloudEventImpl<JsonNode>, Throwable>> processBatch(
+      List<MicoCloudEventImpl<JsonNode>> cloudEvents) {
+    long start = System.nanoTime();
+    startupTimeline.recordReceived();
+    log.info("Input batch of {} messages to process", cloudEvents.size());
+
+    List<CompletableFuture<MicoCloudEventImpl<JsonNode>>> outMsgs = new ArrayList<>(cloudEvents.size());
+    List<MicoCloudEventImpl<JsonNode>> answered = new ArrayList<>(cloudEvents.size());
+    Map<MicoCloudEventImpl<JsonNode>, Throwable> failed = new IdentityHashMap<>();
+    for (MicoCloudEventImpl<JsonNode> cloudEvent : cloudEvents) {
+      if (!deadlineScheduler.admit(cloudEvent)) {
+        continue;
+      }
+      try {
+        Optional<MicoCloudEventImpl<JsonNode>> request = sequenceAggregator.offer(cloudEvent);
+        if (!request.isPresent()) {
+          continue;
+        }
+        outMsgs.add(reply(request.get()).whenComplete((outMsg, e) -> {
+          if (e == null) {
+            messagingBridge.publish(request.get(), outMsg);
+          }
+        }));
+        answered.add(cloudEvent);
+      } catch (RuntimeException e) {
+        log.error("Could not process message '{}' of the batch", cloudEvent.getId(), e);
+        failed.put(cloudEvent, e);
+      }
+    }
+
+    return CompletableFuture.allOf(outMsgs.toArray(new CompletableFuture[0])).handle((result, error) -> {
+      List<MicoCloudEventImpl<JsonNode>> replies = new ArrayList<>(outMsgs.size());
+      List<MicoCloudEventImpl<JsonNode>> replied = new ArrayList<>(outMsgs.size());
+      for (int i = 0; i < outMsgs.size(); i++) {
+        try {
+          replies.add(outMsgs.get(i).join());
+          replied.add(answered.get(i));
+        } catch (CompletionException e) {
+          log.error("Could not process message '{}' of the batch", answered.get(i).getId(), e.getCause());
+          failed.put(answered.get(i), e.getCause());
+        }
+      }
+      List<CompletableFuture<Void>> acks = sender.send(replies);
+      return CompletableFuture.allOf(acks.toArray(new CompletableFuture[0])).handle((sent, sendError) -> {
+        for (int i = 0; i < acks.size(); i++) {
+          try {
+            acks.get(i).join();
+            startupTimeline.recordReplied();
+          } catch (CompletionException e) {
+            log.error("Could not send the reply to message '{}' of the batch", replied.get(i).getId(), e.getCause());
+            failed.put(replied.get(i), e.getCause());
+          }
+        }
+        answered.forEach(deadlineScheduler::completed);
+        processBatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return failed;
+      });
+    }).thenCompose(Function.identity());
+  }
+
+  /**
+   * Returns the stored reply to the request or has the handler compute a new
+   * one. Data the request left in the claim-check store is resolved first. A
+   * failed handler is answered with an error reply, which is not stored, so a
+   * redelivered request is handled again.
+   */
+  private CompletableFuture<MicoCloudEventImpl<JsonNode>> reply(MicoCloudEventImpl<JsonNode> request) {
+    MicoCloudEventImpl<JsonNode> cached = replyCache.getIfPresent(request);
+    if (cached != null) {
+      return CompletableFuture.completedFuture(cached);
+    }
+    MicoCloudEventImpl<JsonNode> resolved;
+    try {
+      resolved = claimCheck.resolve(request);
+    } catch (UncheckedIOException e) {
+      return CompletableFuture.completedFuture(createErrorReply(request, e));
+    }
+    return handlerRegistry.dispatch(resolved).handle((data, error) -> {
+      if (error != null) {
+        return createErrorReply(request, error instanceof CompletionException ? error.getCause() : error);
+      }
+      MicoCloudEventImpl<JsonNode> outMsg = createReply(request, data);
+      replyCache.put(request, outMsg);
+      return outMsg;
+    });
+  }
+
+  /**
+   * Builds the reply for the given request event.
+   *
+   * @param cloudEvent the request event
+   * @param data       the data computed by the handler
+   * @return the reply, addressed to the return topic of the request
+   */
+  static MicoCloudEventImpl<JsonNode> createReply(MicoCloudEventImpl<JsonNode> cloudEvent, JsonNode data) {
     MicoCloudEventImpl<JsonNode> outMsg = new MicoCloudEventImpl<JsonNode>(cloudEvent);
 
-    // Get return address to where the processed message should be sent back.
-    String returnAddress = outMsg.getReturnTopic().orElse("");
     // Set correlationid to current (msg) id.
     outMsg.setCorrelationId(outMsg.getId());
     // And create and set a new (msg) id.
     outMsg.setRandomId();
 
     // Set content
-    ObjectNode node = JsonNodeFactory.instance.objectNode();
-    node.put("service", "processed");
-    outMsg.setData(node);
-
-    websocketsTemplate.convertAndSend("/topic/messaging-bridge", JsonNodeFactory.instance.objectNode()
-        .put("incoming", cloudEvent.toString()).put("outgoing", outMsg.toString()));
+    outMsg.setData(data);
+    // the reference pointed to the request data
+    outMsg.setDataRef(null);
+    return outMsg;
+  }
 
-    sender.send(outMsg, returnAddress);
+  /**
+   * Builds the error reply for a request whose handler failed, or for a
+   * sequence that was given up.
+   *
+   * @param cloudEvent the request event
+   * @param error      the failure of the handler
+   * @return the reply, addressed to the return topic of the request
+   */
+  static MicoCloudEventImpl<JsonNode> createErrorReply(MicoCloudEventImpl<JsonNode> cloudEvent, Throwable error) {
+    log.warn("Answering message '{}' with an error: {}", cloudEvent.getId(), error.toString());
+    StringWriter trace = new StringWriter();
+    error.printStackTrace(new PrintWriter(trace));
+    MicoCloudEventImpl<JsonNode> outMsg = createReply(cloudEvent, null);
+    outMsg.setIsErrorMessage(true).setErrorMessage(error.toString()).setErrorTrace(trace.toString());
+    return outMsg;
   }
 
 }
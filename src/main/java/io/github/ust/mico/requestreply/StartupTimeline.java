@@ -0,0 +1,110 @@
+package io.github.ust.mico.requestreply;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records how long after the start of the JVM the application got through the
+ * phases of its startup, up to the first consumed record and the first reply
+ * acknowledged by the broker. The timeline is logged once the first reply is out
+ * and each phase is available as {@code startup.timeline} gauge.
+ * <p>
+ * With {@code startup.exit-after-ready} the application exits once it is
+ * ready, which is used to record the classes loaded during startup for the
+ * class data sharing archive of the Docker image.
+ */
+@Slf4j
+@Component
+public class StartupTimeline {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Value("${startup.exit-after-ready}")
+    private boolean exitAfterReady;
+
+    private final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+
+    /**
+     * Milliseconds after the JVM start by phase, in order.
+     */
+    private final Map<String, Long> phases = new LinkedHashMap<>();
+
+    private volatile boolean firstRecordSeen;
+
+    private volatile boolean firstReplySeen;
+
+    @EventListener
+    public void onContextRefreshed(ContextRefreshedEvent event) {
+        if (event.getApplicationContext() == applicationContext) {
+            record("context-refreshed");
+        }
+    }
+
+    @EventListener
+    public void onWebServerInitialized(WebServerInitializedEvent event) {
+        record("web-server-started");
+    }
+
+    @EventListener
+    public void onApplicationReady(ApplicationReadyEvent event) {
+        if (event.getApplicationContext() != applicationContext) {
+            return;
+        }
+        record("ready");
+        if (exitAfterReady) {
+            log.info("Exiting after startup as requested");
+            new Thread(() -> System.exit(SpringApplication.exit(applicationContext)), "startup-exit").start();
+        }
+    }
+
+    /**
+     * Called for every consumed record, records the first one.
+     */
+    public void recordReceived() {
+        if (!firstRecordSeen) {
+            firstRecordSeen = true;
+            record("first-record");
+        }
+    }
+
+    /**
+     * Called for every reply the broker acknowledged, records the first one
+     * and logs the timeline.
+     */
+    public void recordReplied() {
+        if (!firstReplySeen) {
+            firstReplySeen = true;
+            record("first-reply");
+            log.info("Startup timeline in ms after the JVM start: {}", phases);
+        }
+    }
+
+    private synchronized void record(String phase) {
+        if (phases.containsKey(phase)) {
+            return;
+        }
+        long millis = System.currentTimeMillis() - jvmStartTime;
+        phases.put(phase, millis);
+        Gauge.builder("startup.timeline", () -> millis).tag("phase", phase).baseUnit("milliseconds")
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,211 @@
+package io.github.ust.mico.requestreply.claimcheck;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import javax.annotation.PostConstruct;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.cloudevents.json.Json;
+import io.github.ust.mico.requestreply.configuration.ClaimCheckConfig;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.github.ust.mico.requestreply.kafka.RawJsonNode;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Claim check for large event data. On the way out, data above the threshold
+ * is put into the {@link ClaimCheckStore} and the event carries only its
+ * {@code dataRef}. On the way in, the reference is resolved right before a
+ * request is handed to its handler, so requests answered from the reply cache
+ * or buffered as parts of a sequence do not read it earlier than needed.
+ */
+@Slf4j
+@Component
+public class ClaimCheck {
+
+    @Autowired
+    private ClaimCheckConfig claimCheckConfig;
+
+    @Autowired
+    private ClaimCheckStore store;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private long threshold;
+
+    private DistributionSummary storedSize;
+
+    private Counter failedCounter;
+
+    private Counter resolvedCounter;
+
+    private Counter missingCounter;
+
+    @PostConstruct
+    public void init() {
+        threshold = claimCheckConfig.getThreshold().toBytes();
+        storedSize = DistributionSummary.builder("claim-check.stored").baseUnit("bytes").register(meterRegistry);
+        failedCounter = meterRegistry.counter("claim-check.failed");
+        resolvedCounter = meterRegistry.counter("claim-check.resolved", "outcome", "found");
+        missingCounter = meterRegistry.counter("claim-check.resolved", "outcome", "missing");
+    }
+
+    /**
+     * Moves the data of the event into the store if it is large enough. If the
+     * store fails the event is sent with its data inline.
+     *
+     * @param cloudEvent the event to send
+     * @return the event to send instead, without data but with a reference to
+     *         it, or the given event
+     */
+    public MicoCloudEventImpl<JsonNode> checkIn(MicoCloudEventImpl<JsonNode> cloudEvent) {
+        if (!claimCheckConfig.isEnabled() || !cloudEvent.hasData()) {
+            return cloudEvent;
+        }
+        JsonNode data = cloudEvent.getRawData();
+        try {
+            byte[] bytes;
+            if (data instanceof RawJsonNode) {
+                bytes = ((RawJsonNode) data).getBytes();
+                if (bytes.length < threshold) {
+                    return cloudEvent;
+                }
+            } else {
+                // small data is left to the serializer, only data that is stored is encoded here
+                if (!reachesThreshold(data)) {
+                    return cloudEvent;
+                }
+                bytes = Json.MAPPER.writeValueAsBytes(data);
+            }
+            String dataRef = store.store(bytes);
+            storedSize.record(bytes.length);
+            log.debug("Moved {} bytes of data of msg:'{}' to '{}'", bytes.length, cloudEvent.getId(), dataRef);
+            return new MicoCloudEventImpl<>(cloudEvent).setData(null).setDataRef(dataRef);
+        } catch (IOException e) {
+            failedCounter.increment();
+            log.error("Could not move the data of msg:'{}' to the claim-check store, sending it inline",
+                    cloudEvent.getId(), e);
+            return cloudEvent;
+        }
+    }
+
+    /**
+     * Tells whether the encoded data is at least as large as the threshold. The
+     * encoding is only counted and stops once the threshold is reached.
+     */
+    private boolean reachesThreshold(JsonNode data) throws IOException {
+        if (threshold <= 0) {
+            return true;
+        }
+        try {
+            Json.MAPPER.writeValue(new CountingStream(threshold), data);
+            return false;
+        } catch (ThresholdReachedException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Returns the event with the data its {@code dataRef} refers to inline, so
+     * handlers see the data of checked-in requests like any other.
+     *
+     * @param cloudEvent a received event
+     * @return a copy with the referenced data and without {@code dataRef}, or
+     *         the given event if it has no reference or the referenced data is
+     *         gone
+     */
+    public MicoCloudEventImpl<JsonNode> resolve(MicoCloudEventImpl<JsonNode> cloudEvent) {
+        if (cloudEvent.hasData() || cloudEvent.getDataRefOrNull() == null) {
+            return cloudEvent;
+        }
+        Optional<JsonNode> data = dataOf(cloudEvent);
+        if (!data.isPresent()) {
+            return cloudEvent;
+        }
+        return new MicoCloudEventImpl<>(cloudEvent).setData(data.get()).setDataRef(null);
+    }
+
+    /**
+     * Returns the data of the event. Data in the store is parsed straight from
+     * the buffer the store hands out.
+     *
+     * @param cloudEvent a received event
+     * @return the inline data, the data its {@code dataRef} refers to or nothing
+     *         if the event has neither or the referenced data is gone
+     */
+    public Optional<JsonNode> dataOf(MicoCloudEventImpl<JsonNode> cloudEvent) {
+        String dataRef = cloudEvent.getDataRefOrNull();
+        if (cloudEvent.hasData() || dataRef == null) {
+            return cloudEvent.getData();
+        }
+        try {
+            Optional<ByteBuffer> stored = store.load(dataRef);
+            if (!stored.isPresent()) {
+                missingCounter.increment();
+                log.warn("Data '{}' of msg:'{}' is not in the claim-check store", dataRef, cloudEvent.getId());
+                return Optional.empty();
+            }
+            resolvedCounter.increment();
+            return Optional.of(Json.MAPPER.readTree(new ByteBufferBackedInputStream(stored.get())));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read data '" + dataRef + "' of msg '" + cloudEvent.getId() + "'",
+                    e);
+        }
+    }
+
+    /**
+     * Counts the bytes written to it and fails once they reach the limit.
+     */
+    private static final class CountingStream extends OutputStream {
+
+        private final long limit;
+
+        private long count;
+
+        CountingStream(long limit) {
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count(len);
+        }
+
+        private void count(int len) throws ThresholdReachedException {
+            count += len;
+            if (count >= limit) {
+                throw new ThresholdReachedException();
+            }
+        }
+    }
+
+    /**
+     * Stops the encoding in {@link #reachesThreshold(JsonNode)}.
+     */
+    private static final class ThresholdReachedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package io.github.ust.mico.requestreply.claimcheck;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * Keeps event data outside of Kafka. The reference returned by
+ * {@link #store(byte[])} travels in the {@code dataRef} of the event, so every
+ * service resolving it has to reach the same store.
+ */
+public interface ClaimCheckStore {
+
+    /**
+     * Stores the data.
+     *
+     * @param data the serialized data
+     * @return the reference to the stored data
+     */
+    String store(byte[] data) throws IOException;
+
+    /**
+     * Looks up stored data. The returned buffer may be a view on the storage
+     * itself and must only be read.
+     *
+     * @param dataRef a reference returned by {@link #store(byte[])}
+     * @return the data, or nothing if the reference is unknown or the data was
+     *         removed
+     */
+    Optional<ByteBuffer> load(String dataRef) throws IOException;
+}
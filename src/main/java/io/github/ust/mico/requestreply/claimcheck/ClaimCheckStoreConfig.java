@@ -0,0 +1,31 @@
+package io.github.ust.mico.requestreply.claimcheck;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.github.ust.mico.requestreply.configuration.ClaimCheckConfig;
+
+/**
+ * Provides the local memory-mapped claim-check store unless another store is
+ * configured. A shared store is plugged in by setting {@code claim-check.store}
+ * to its name and declaring it as a {@link ClaimCheckStore} bean.
+ */
+@Configuration
+@ConditionalOnProperty(name = "claim-check.store", havingValue = "mapped-segments", matchIfMissing = true)
+public class ClaimCheckStoreConfig {
+
+    @Autowired
+    private ClaimCheckConfig claimCheckConfig;
+
+    @Bean(destroyMethod = "close")
+    public ClaimCheckStore claimCheckStore() throws IOException {
+        return new MappedSegmentStore(Paths.get(claimCheckConfig.getDirectory()),
+                Math.toIntExact(claimCheckConfig.getSegmentSize().toBytes()), claimCheckConfig.getRetention(),
+                claimCheckConfig.getCompactionInterval());
+    }
+}
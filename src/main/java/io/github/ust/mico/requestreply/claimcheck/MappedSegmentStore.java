@@ -0,0 +1,180 @@
+package io.github.ust.mico.requestreply.claimcheck;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Claim-check store in memory-mapped segment files of a local directory. Data
+ * is appended to the active segment; when it is full a new one is started and
+ * the old one is sealed. Lookups return a slice of the mapped segment, so
+ * reading the data does not copy it onto the heap. Sealed segments are deleted
+ * once their last write is older than the retention. References have the form
+ * {@code mmap:<segment>:<offset>:<length>}.
+ */
+@Slf4j
+public class MappedSegmentStore implements ClaimCheckStore, Closeable {
+
+    private static final String SCHEME = "mmap:";
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".dat";
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final Duration retention;
+
+    /**
+     * Read mappings of the segments looked up so far, by segment id.
+     */
+    private final Map<Long, MappedByteBuffer> mappedSegments = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService compactor;
+
+    private long activeId = -1;
+
+    private MappedByteBuffer active;
+
+    public MappedSegmentStore(Path directory, int segmentSize, Duration retention, Duration compactionInterval)
+            throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.retention = retention;
+        compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "claim-check-compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = compactionInterval.toMillis();
+        compactor.scheduleWithFixedDelay(this::compact, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized String store(byte[] data) throws IOException {
+        if (active == null || active.remaining() < data.length) {
+            startSegment(Math.max(segmentSize, data.length));
+        }
+        int offset = active.position();
+        active.put(data);
+        return SCHEME + activeId + ":" + offset + ":" + data.length;
+    }
+
+    @Override
+    public Optional<ByteBuffer> load(String dataRef) throws IOException {
+        if (!dataRef.startsWith(SCHEME)) {
+            return Optional.empty();
+        }
+        String[] parts = dataRef.substring(SCHEME.length()).split(":");
+        if (parts.length != 3) {
+            return Optional.empty();
+        }
+        long id = Long.parseLong(parts[0]);
+        int offset = Integer.parseInt(parts[1]);
+        int length = Integer.parseInt(parts[2]);
+        MappedByteBuffer segment = mappedSegments.get(id);
+        if (segment == null) {
+            try {
+                segment = map(segmentFile(id), MapMode.READ_ONLY);
+            } catch (NoSuchFileException e) {
+                return Optional.empty();
+            }
+            MappedByteBuffer existing = mappedSegments.putIfAbsent(id, segment);
+            segment = existing != null ? existing : segment;
+        }
+        ByteBuffer data = segment.duplicate();
+        data.position(offset).limit(offset + length);
+        return Optional.of(data.slice().asReadOnlyBuffer());
+    }
+
+    /**
+     * Deletes the sealed segments whose last write is older than the retention.
+     * References into them resolve to nothing afterwards.
+     */
+    void compact() {
+        long oldest = System.currentTimeMillis() - retention.toMillis();
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                long id = segmentId(segment);
+                if (id != activeId && Files.getLastModifiedTime(segment).toMillis() < oldest) {
+                    mappedSegments.remove(id);
+                    Files.deleteIfExists(segment);
+                    log.info("Removed claim-check segment '{}' after its retention", segment);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not compact the claim-check segments in '{}'", directory, e);
+        }
+    }
+
+    private void startSegment(int size) throws IOException {
+        if (active != null) {
+            seal(activeId);
+        }
+        // ids are creation times, unique and ascending within the directory
+        long id = Math.max(System.currentTimeMillis(), activeId + 1);
+        Path file = segmentFile(id);
+        while (Files.exists(file)) {
+            file = segmentFile(++id);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            active = channel.map(MapMode.READ_WRITE, 0, size);
+        }
+        activeId = id;
+        mappedSegments.put(id, active);
+        log.info("Started claim-check segment '{}' of {} bytes", file, size);
+    }
+
+    /**
+     * Stamps the segment with the time of its last write, which compaction goes
+     * by. Writes through the mapping do not reliably update it.
+     */
+    private void seal(long id) throws IOException {
+        Files.setLastModifiedTime(segmentFile(id), FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    private MappedByteBuffer map(Path file, MapMode mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return channel.map(mode, 0, channel.size());
+        }
+    }
+
+    private Path segmentFile(long id) {
+        return directory.resolve(SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentId(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        compactor.shutdownNow();
+        if (active != null) {
+            seal(activeId);
+        }
+    }
+}
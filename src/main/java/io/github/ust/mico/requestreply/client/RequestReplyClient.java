@@ -0,0 +1,265 @@
+package io.github.ust.mico.requestreply.client;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.ContainerProperties;
+import org.springframework.kafka.listener.KafkaMessageListenerContainer;
+import org.springframework.kafka.listener.MessageListener;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.Sender;
+import io.github.ust.mico.requestreply.configuration.RequestReplyClientConfig;
+import io.github.ust.mico.requestreply.kafka.KafkaConsumerConfig;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Client side of request-reply over Kafka. A request is sent with the reply
+ * topic of this client as its return topic, and the returned future completes
+ * with the reply whose {@code correlationId} is the id of the request. Replies
+ * are matched in a concurrent map, timeouts are handled by a
+ * {@link HashedWheelTimer}, so the number of outstanding requests only costs
+ * memory.
+ * <p>
+ * Futures complete on the reply listener or the timer thread. Callers doing
+ * more than a little work on completion should use the async variants of the
+ * future's callbacks.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "request-reply-client.enabled", havingValue = "true")
+public class RequestReplyClient {
+
+    @Autowired
+    private RequestReplyClientConfig clientConfig;
+
+    /**
+     * Requests go out on the producer of the replies, which may be replaced
+     * at runtime, so they are sent through the sender.
+     */
+    @Autowired
+    private Sender sender;
+
+    @Autowired
+    private KafkaConsumerConfig kafkaConsumerConfig;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
+
+    /**
+     * One permit per request that may wait for a reply. A permit is taken
+     * before a request is added to the pending requests and returned by
+     * whoever removes it again.
+     */
+    private Semaphore pendingSlots;
+
+    private HashedWheelTimer timer;
+
+    private KafkaMessageListenerContainer<String, MicoCloudEventImpl<JsonNode>> replyContainer;
+
+    private Counter matchedCounter;
+
+    private Counter unmatchedCounter;
+
+    private Counter timeoutCounter;
+
+    private Counter rejectedCounter;
+
+    @PostConstruct
+    public void init() {
+        pendingSlots = new Semaphore(clientConfig.getMaxPending());
+        timer = new HashedWheelTimer(clientConfig.getTickDuration().toNanos(), TimeUnit.NANOSECONDS,
+                clientConfig.getTicksPerWheel(), "request-reply-client-timer");
+        matchedCounter = meterRegistry.counter("client.replies", "outcome", "matched");
+        unmatchedCounter = meterRegistry.counter("client.replies", "outcome", "unmatched");
+        timeoutCounter = meterRegistry.counter("client.timeouts");
+        rejectedCounter = meterRegistry.counter("client.rejected");
+        meterRegistry.gauge("client.pending", pendingRequests, Map::size);
+
+        Map<String, Object> properties = new HashMap<>(kafkaConsumerConfig.consumerConfigs());
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, clientConfig.getGroupId());
+        ContainerProperties containerProperties = new ContainerProperties(clientConfig.getReplyTopic());
+        containerProperties.setMessageListener((MessageListener<String, MicoCloudEventImpl<JsonNode>>) this::onReply);
+        // the group starts at the latest offset, replies sent before the assignment would be missed
+        CountDownLatch assigned = new CountDownLatch(1);
+        containerProperties.setConsumerRebalanceListener(new ConsumerRebalanceListener() {
+
+            @Override
+            public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            }
+
+            @Override
+            public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                assigned.countDown();
+            }
+        });
+        replyContainer = new KafkaMessageListenerContainer<>(new DefaultKafkaConsumerFactory<>(properties),
+                containerProperties);
+        replyContainer.setBeanName("requestReplyClientReplies");
+        replyContainer.start();
+        try {
+            if (!assigned.await(clientConfig.getAssignmentTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Reply topic '{}' not assigned within {}, early replies may be missed",
+                        clientConfig.getReplyTopic(), clientConfig.getAssignmentTimeout());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Listening for replies on topic '{}' in group '{}'", clientConfig.getReplyTopic(),
+                clientConfig.getGroupId());
+    }
+
+    /**
+     * Sends the request to the configured request topic.
+     *
+     * @see #sendAndReceive(String, MicoCloudEventImpl, Duration)
+     */
+    public CompletableFuture<MicoCloudEventImpl<JsonNode>> sendAndReceive(MicoCloudEventImpl<JsonNode> request,
+            Duration timeout) {
+        return sendAndReceive(clientConfig.getRequestTopic(), request, timeout);
+    }
+
+    /**
+     * Sends the request and returns the future reply. The request gets a random
+     * id if it has none, and the reply topic of this client as return topic.
+     * The future fails with a {@link TimeoutException} if no reply arrives in
+     * time, and with a {@link KafkaException} if the request could not be sent
+     * or too many requests are outstanding.
+     *
+     * @param topic   the topic to send the request to
+     * @param request the request event
+     * @param timeout how long to wait for the reply
+     * @return the future reply
+     */
+    public CompletableFuture<MicoCloudEventImpl<JsonNode>> sendAndReceive(String topic,
+            MicoCloudEventImpl<JsonNode> request, Duration timeout) {
+        CompletableFuture<MicoCloudEventImpl<JsonNode>> reply = new CompletableFuture<>();
+        if (!pendingSlots.tryAcquire()) {
+            rejectedCounter.increment();
+            reply.completeExceptionally(
+                    new KafkaException(clientConfig.getMaxPending() + " requests are already waiting for a reply"));
+            return reply;
+        }
+        if (request.getId() == null) {
+            request.setRandomId();
+        }
+        request.setReturnTopic(clientConfig.getReplyTopic());
+        String correlationId = request.getId();
+        PendingRequest pending = new PendingRequest(reply);
+        if (pendingRequests.putIfAbsent(correlationId, pending) != null) {
+            pendingSlots.release();
+            reply.completeExceptionally(
+                    new KafkaException("A request with id '" + correlationId + "' is already waiting for a reply"));
+            return reply;
+        }
+        pending.timeout = timer.schedule(() -> expire(correlationId, pending, timeout), timeout.toNanos(),
+                TimeUnit.NANOSECONDS);
+        try {
+            sender.sendOnSharedProducer(topic, request).addCallback(result -> {
+            }, e -> fail(correlationId, pending, e));
+        } catch (RuntimeException e) {
+            fail(correlationId, pending, e);
+        }
+        return reply;
+    }
+
+    /**
+     * Returns the number of requests waiting for their reply.
+     */
+    public int pending() {
+        return pendingRequests.size();
+    }
+
+    private void onReply(ConsumerRecord<String, MicoCloudEventImpl<JsonNode>> record) {
+        MicoCloudEventImpl<JsonNode> reply = record.value();
+        String correlationId = reply == null ? null : reply.getCorrelationIdOrNull();
+        PendingRequest pending = correlationId == null ? null : pendingRequests.remove(correlationId);
+        if (pending == null) {
+            // a reply to another instance, or one that arrived after its timeout
+            unmatchedCounter.increment();
+            return;
+        }
+        pendingSlots.release();
+        pending.cancelTimeout();
+        matchedCounter.increment();
+        pending.reply.complete(reply);
+    }
+
+    private void expire(String correlationId, PendingRequest pending, Duration timeout) {
+        if (pendingRequests.remove(correlationId, pending)) {
+            pendingSlots.release();
+            timeoutCounter.increment();
+            pending.reply.completeExceptionally(
+                    new TimeoutException("No reply to request '" + correlationId + "' within " + timeout));
+        }
+    }
+
+    private void fail(String correlationId, PendingRequest pending, Throwable e) {
+        if (pendingRequests.remove(correlationId, pending)) {
+            pendingSlots.release();
+            pending.cancelTimeout();
+            pending.reply.completeExceptionally(e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        replyContainer.stop();
+        timer.close();
+        for (String correlationId : pendingRequests.keySet()) {
+            PendingRequest pending = pendingRequests.remove(correlationId);
+            if (pending != null) {
+                pendingSlots.release();
+                pending.reply.completeExceptionally(new KafkaException("The client was closed"));
+            }
+        }
+    }
+
+    private static final class PendingRequest {
+
+        private final CompletableFuture<MicoCloudEventImpl<JsonNode>> reply;
+
+        private volatile HashedWheelTimer.Timeout timeout;
+
+        PendingRequest(CompletableFuture<MicoCloudEventImpl<JsonNode>> reply) {
+            this.reply = reply;
+        }
+
+        /**
+         * Cancels the timeout. A reply can arrive before the timeout is set, it
+         * then expires without effect.
+         */
+        void cancelTimeout() {
+            HashedWheelTimer.Timeout scheduled = timeout;
+            if (scheduled != null) {
+                scheduled.cancel();
+            }
+        }
+    }
+}
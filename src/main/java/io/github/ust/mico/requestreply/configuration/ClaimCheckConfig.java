@@ -0,0 +1,70 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import java.time.Duration;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of the claim check, which moves large event data out of the
+ * messages into a store and sends a reference to it instead.
+ */
+@Component
+@Setter
+@Getter
+@Validated
+@ConfigurationProperties("claim-check")
+public class ClaimCheckConfig {
+
+    /**
+     * Whether large data is moved into the store at all. Every consumer of the
+     * replies has to reach the store.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Data of at least this serialized size is moved into the store.
+     */
+    @NotNull
+    private DataSize threshold = DataSize.ofMegabytes(1);
+
+    /**
+     * The store to use. {@code mapped-segments} is the local memory-mapped
+     * store, any other value expects a {@code ClaimCheckStore} bean.
+     */
+    @NotBlank
+    private String store = "mapped-segments";
+
+    /**
+     * Directory of the segment files of the local store.
+     */
+    @NotBlank
+    private String directory;
+
+    /**
+     * Size of a segment file of the local store. Larger data gets a segment of
+     * its own.
+     */
+    @NotNull
+    private DataSize segmentSize = DataSize.ofMegabytes(256);
+
+    /**
+     * How long the data of a full segment is kept after its last write.
+     */
+    @NotNull
+    private Duration retention = Duration.ofHours(1);
+
+    /**
+     * Interval in which segments past their retention are removed.
+     */
+    @NotNull
+    private Duration compactionInterval = Duration.ofMinutes(1);
+}
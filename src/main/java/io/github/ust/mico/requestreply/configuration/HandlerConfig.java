@@ -0,0 +1,95 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of the request handlers and the executor they run on.
+ */
+@Component
+@Setter
+@Getter
+@Validated
+@ConfigurationProperties("handlers")
+public class HandlerConfig {
+
+    /**
+     * {@code platform} for a bounded pool of platform threads, {@code virtual}
+     * for a virtual thread per call. Virtual threads need a JDK that has them,
+     * otherwise the platform pool is used.
+     */
+    @NotBlank
+    private String executor = "platform";
+
+    /**
+     * Number of threads of the platform pool.
+     */
+    @Min(1)
+    private int poolSize = 32;
+
+    /**
+     * Number of calls queued for the platform pool. When the queue is full the
+     * listener thread waits for room, which slows down consumption.
+     */
+    @Min(0)
+    private int queueCapacity = 1000;
+
+    /**
+     * How long the listener thread waits for room in the queue of the platform
+     * pool before the request is answered with an error.
+     */
+    @NotNull
+    private Duration queueTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Bean name of the handler answering types no other handler claims.
+     */
+    @NotBlank
+    private String defaultHandler = "processed";
+
+    /**
+     * Limits of handlers without limits of their own.
+     */
+    @Valid
+    @NotNull
+    private Limits defaults = new Limits();
+
+    /**
+     * Limits per handler bean name.
+     */
+    @Valid
+    private Map<String, Limits> limits = new HashMap<>();
+
+    @Setter
+    @Getter
+    public static class Limits {
+
+        /**
+         * Maximum number of concurrent calls of the handler. Further requests
+         * wait on the listener thread until a call completes, at most for the
+         * timeout, then they are answered with an error.
+         */
+        @Min(1)
+        private int maxConcurrency = 100;
+
+        /**
+         * How long a call may take before the request is answered with an
+         * error.
+         */
+        @NotNull
+        private Duration timeout = Duration.ofSeconds(30);
+    }
+}
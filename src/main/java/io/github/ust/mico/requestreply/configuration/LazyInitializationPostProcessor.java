@@ -0,0 +1,46 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.RequestReplyApplication;
+
+/**
+ * Makes the beans of the libraries lazy, so that everything off the path from
+ * the input topic to the reply is only created once it is used. The actuator
+ * endpoints and the web MVC mappings including the webjars resources are set
+ * up on the first HTTP request instead of during startup.
+ * <p>
+ * Beans of the application itself stay eager, they are the hot path and
+ * bring along the library beans they need. So do the infrastructure beans
+ * and everything Spring starts as lifecycle bean, such as the listener
+ * containers and the STOMP broker of the messaging bridge.
+ */
+@Component
+@ConditionalOnProperty(name = "startup.lazy-initialization", havingValue = "true")
+public class LazyInitializationPostProcessor implements BeanFactoryPostProcessor {
+
+    private static final String APPLICATION_PACKAGE = RequestReplyApplication.class.getPackage().getName() + ".";
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        for (String name : beanFactory.getBeanDefinitionNames()) {
+            BeanDefinition definition = beanFactory.getBeanDefinition(name);
+            if (definition.getRole() != BeanDefinition.ROLE_INFRASTRUCTURE && !isApplicationBean(beanFactory, definition)) {
+                definition.setLazyInit(true);
+            }
+        }
+    }
+
+    private boolean isApplicationBean(ConfigurableListableBeanFactory beanFactory, BeanDefinition definition) {
+        if (definition.getFactoryBeanName() != null && beanFactory.containsBeanDefinition(definition.getFactoryBeanName())) {
+            definition = beanFactory.getBeanDefinition(definition.getFactoryBeanName());
+        }
+        String className = definition.getBeanClassName();
+        return className != null && className.startsWith(APPLICATION_PACKAGE);
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of the websocket feed that mirrors processed messages to the
+ * message viewer.
+ */
+@Component
+@Setter
+@Getter
+@ConfigurationProperties("messaging-bridge")
+public class MessagingBridgeConfig {
+
+    /**
+     * Whether processed messages are mirrored at all.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Fraction of the processed messages that is mirrored, between 0 and 1.
+     */
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double sampleRate = 1.0;
+
+    /**
+     * Number of entries buffered for the feed. When the buffer is full the
+     * oldest entry is dropped.
+     */
+    @Min(1)
+    private int bufferSize = 1024;
+
+    /**
+     * Interval in milliseconds in which buffered entries are sent as one frame.
+     */
+    @Min(1)
+    private long flushIntervalMs = 250;
+
+    /**
+     * Maximum number of entries per frame.
+     */
+    @Min(1)
+    private int maxFrameSize = 100;
+}
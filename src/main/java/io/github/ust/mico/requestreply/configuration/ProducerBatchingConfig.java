@@ -0,0 +1,116 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of how the producer batches replies. A named profile sets the
+ * initial batching and compression settings, the adaptive mode tunes linger
+ * and batch size at runtime.
+ */
+@Component
+@Setter
+@Getter
+@Validated
+@ConfigurationProperties("kafka.sender.batching")
+public class ProducerBatchingConfig {
+
+    /**
+     * Name of the active profile.
+     */
+    @NotBlank
+    private String profile = "balanced";
+
+    /**
+     * The available profiles by name.
+     */
+    @Valid
+    private Map<String, Profile> profiles = new HashMap<>();
+
+    @Valid
+    private Adaptive adaptive = new Adaptive();
+
+    @Setter
+    @Getter
+    public static class Profile {
+
+        /**
+         * How long the producer waits for more records before sending a batch.
+         */
+        @Min(0)
+        private int lingerMs;
+
+        /**
+         * Maximum size of a batch per partition in bytes.
+         */
+        @Min(0)
+        private int batchSize = 16384;
+
+        /**
+         * Compression of the batches: none, gzip, snappy or lz4.
+         */
+        @NotBlank
+        private String compressionType = "none";
+    }
+
+    @Setter
+    @Getter
+    public static class Adaptive {
+
+        /**
+         * Whether linger and batch size are tuned at runtime, starting from the
+         * active profile.
+         */
+        private boolean enabled;
+
+        /**
+         * Interval in milliseconds in which the send rate and the ack latency
+         * are evaluated. Each change recreates the producer, so this should not
+         * be too short.
+         */
+        @Min(1000)
+        private long intervalMs = 30000;
+
+        /**
+         * Mean ack latency in milliseconds above which the linger is reduced.
+         */
+        @Min(1)
+        private long targetAckLatencyMs = 50;
+
+        /**
+         * Send rate in records per second from which on the linger is increased.
+         */
+        @Min(1)
+        private double highRate = 1000;
+
+        /**
+         * Send rate in records per second below which the linger drops back to
+         * its minimum.
+         */
+        @Min(0)
+        private double lowRate = 100;
+
+        @Min(0)
+        private int minLingerMs = 0;
+
+        @Min(0)
+        private int maxLingerMs = 50;
+
+        @Min(1)
+        private int minBatchSize = 16384;
+
+        @Min(1)
+        private int maxBatchSize = 1048576;
+    }
+}
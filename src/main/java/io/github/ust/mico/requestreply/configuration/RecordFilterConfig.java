@@ -0,0 +1,63 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of the record filter, which discards records of the input
+ * topic before they are deserialized. The attributes are read from the record
+ * headers or by scanning the raw record value.
+ */
+@Component
+@Setter
+@Getter
+@Validated
+@ConfigurationProperties("kafka.filter")
+public class RecordFilterConfig {
+
+    /**
+     * Whether records of the input topic are filtered at all.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Event types to process, all other records are discarded. Empty accepts
+     * any type.
+     */
+    @NotNull
+    private List<String> types = new ArrayList<>();
+
+    /**
+     * Prefixes of the event sources to process, all other records are
+     * discarded. Empty accepts any source.
+     */
+    @NotNull
+    private List<String> sources = new ArrayList<>();
+
+    /**
+     * Whether test messages are discarded.
+     */
+    private boolean dropTestMessages = false;
+
+    /**
+     * Whether test messages whose {@code filterOutBeforeTopic} is the input
+     * topic are discarded.
+     */
+    private boolean filterOutBeforeTopic = true;
+
+    /**
+     * Topic the discarded records are published to unchanged. Empty drops
+     * them.
+     */
+    @NotNull
+    private String divertTopic = "";
+}
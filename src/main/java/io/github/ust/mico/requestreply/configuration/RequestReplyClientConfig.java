@@ -0,0 +1,78 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import java.time.Duration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of the {@code RequestReplyClient}, which sends requests and
+ * completes a future with the matching reply.
+ */
+@Component
+@Setter
+@Getter
+@Validated
+@ConfigurationProperties("request-reply-client")
+public class RequestReplyClientConfig {
+
+    /**
+     * Whether the client is available.
+     */
+    private boolean enabled = false;
+
+    /**
+     * Topic requests are sent to unless another one is given.
+     */
+    @NotBlank
+    private String requestTopic;
+
+    /**
+     * Topic the replies to the requests of this client arrive on. It is set as
+     * the return topic of every request.
+     */
+    @NotBlank
+    private String replyTopic;
+
+    /**
+     * Consumer group of the reply listener. It has to be unique per instance,
+     * so every instance sees all replies and picks its own.
+     */
+    @NotBlank
+    private String groupId;
+
+    /**
+     * How long to wait on startup for the reply topic to be assigned. Replies
+     * sent before are not received.
+     */
+    @NotNull
+    private Duration assignmentTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Maximum number of requests waiting for their reply. Further requests fail
+     * right away.
+     */
+    @Min(1)
+    private int maxPending = 100000;
+
+    /**
+     * Resolution of the timeouts.
+     */
+    @NotNull
+    private Duration tickDuration = Duration.ofMillis(10);
+
+    /**
+     * Number of buckets of the timeout wheel. Timeouts up to this many ticks
+     * are handled within one round.
+     */
+    @Min(1)
+    private int ticksPerWheel = 1024;
+}
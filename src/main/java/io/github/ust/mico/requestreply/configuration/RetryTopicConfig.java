@@ -0,0 +1,75 @@
+package io.github.ust.mico.requestreply.configuration;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotNull;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Configuration of the retry topics. A record that fails in the listener is
+ * published to the first retry topic and the partition moves on. Every retry
+ * topic is consumed with its delay, a record failing there goes to the next
+ * one and after the last one to the dead-letter topic.
+ */
+@Component
+@Setter
+@Getter
+@Validated
+@ConfigurationProperties("kafka.retry")
+public class RetryTopicConfig {
+
+    /**
+     * Whether failed records are retried through the retry topics. If not,
+     * they go to the dead-letter topic straight away.
+     */
+    private boolean enabled = true;
+
+    /**
+     * Delay of each retry topic, one topic per delay.
+     */
+    @NotNull
+    private List<Duration> delays = new ArrayList<>(
+            Arrays.asList(Duration.ofSeconds(1), Duration.ofSeconds(10), Duration.ofMinutes(1)));
+
+    /**
+     * Suffix of the retry topics, followed by the index of the topic.
+     */
+    @NotBlank
+    private String topicSuffix = "-retry-";
+
+    /**
+     * Suffix of the dead-letter topic.
+     */
+    @NotBlank
+    private String deadLetterSuffix = "-dlt";
+
+    /**
+     * Names the retry topics of the given topic.
+     */
+    public List<String> retryTopics(String topic) {
+        List<String> topics = new ArrayList<>();
+        if (enabled) {
+            for (int i = 0; i < delays.size(); i++) {
+                topics.add(topic + topicSuffix + i);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Names the dead-letter topic of the given topic.
+     */
+    public String deadLetterTopic(String topic) {
+        return topic + deadLetterSuffix;
+    }
+}
@@ -0,0 +1,268 @@
+package io.github.ust.mico.requestreply.handler;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.configuration.HandlerConfig;
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Dispatches requests to the {@link RequestHandler} of their type. Handlers run
+ * on the handler executor, each with its own concurrency limit and timeout. A
+ * request whose handler is at its limit, or which finds the executor full,
+ * waits on the calling thread for a bounded time, so a slow handler slows down
+ * consumption instead of piling up requests. Once the wait is over the request
+ * fails, it is never handled on the calling thread.
+ */
+@Slf4j
+@Component
+public class HandlerRegistry {
+
+    @Autowired
+    private HandlerConfig handlerConfig;
+
+    @Autowired
+    private Map<String, RequestHandler> handlers;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, Slot> slotsByType = new HashMap<>();
+
+    private Slot defaultSlot;
+
+    private ExecutorService executor;
+
+    private ScheduledThreadPoolExecutor timeouts;
+
+    @PostConstruct
+    public void init() {
+        for (Map.Entry<String, RequestHandler> handler : handlers.entrySet()) {
+            Slot slot = new Slot(handler.getKey(), handler.getValue(),
+                    handlerConfig.getLimits().getOrDefault(handler.getKey(), handlerConfig.getDefaults()));
+            for (String type : handler.getValue().getTypes()) {
+                Slot existing = slotsByType.putIfAbsent(type, slot);
+                if (existing != null) {
+                    throw new IllegalStateException("Type '" + type + "' is handled by both '" + existing.name
+                            + "' and '" + slot.name + "'");
+                }
+            }
+            if (handler.getKey().equals(handlerConfig.getDefaultHandler())) {
+                defaultSlot = slot;
+            }
+        }
+        if (defaultSlot == null) {
+            throw new IllegalStateException("No default handler '" + handlerConfig.getDefaultHandler() + "'");
+        }
+        executor = createExecutor();
+        timeouts = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "handler-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timeouts.setRemoveOnCancelPolicy(true);
+        log.info("Handlers by type: {}, default handler: '{}'", slotsByType.keySet(), defaultSlot.name);
+    }
+
+    private ExecutorService createExecutor() {
+        if ("virtual".equals(handlerConfig.getExecutor())) {
+            try {
+                ExecutorService virtual = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+                log.info("Running handlers on virtual threads");
+                return virtual;
+            } catch (ReflectiveOperationException e) {
+                log.warn("Virtual threads are not available on Java {}, running handlers on platform threads",
+                        System.getProperty("java.version"));
+            }
+        }
+        int capacity = handlerConfig.getQueueCapacity();
+        BlockingQueue<Runnable> queue = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : new SynchronousQueue<>();
+        AtomicInteger threads = new AtomicInteger();
+        long queueTimeoutNanos = handlerConfig.getQueueTimeout().toNanos();
+        return new ThreadPoolExecutor(handlerConfig.getPoolSize(), handlerConfig.getPoolSize(), 60, TimeUnit.SECONDS,
+                queue, runnable -> new Thread(runnable, "handler-" + threads.incrementAndGet()), (task, pool) -> {
+                    if (pool.isShutdown()) {
+                        throw new RejectedExecutionException("The handler executor is shut down");
+                    }
+                    if (task instanceof TimeoutCompletion) {
+                        // the timeout thread never waits, it hands the completion to the common pool
+                        throw new RejectedExecutionException("The handler executor is full");
+                    }
+                    // the pool and its queue are full, the caller waits for room, but not longer than the queue timeout
+                    try {
+                        if (pool.getQueue().offer(task, queueTimeoutNanos, TimeUnit.NANOSECONDS)) {
+                            return;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new RejectedExecutionException(
+                            "The handler executor is full for " + handlerConfig.getQueueTimeout());
+                });
+    }
+
+    /**
+     * Calls the handler of the request's type, or the default handler.
+     *
+     * @param request the request event
+     * @return the data of the reply. Fails with a {@link TimeoutException} if
+     *         the handler exceeds its timeout.
+     */
+    public CompletableFuture<JsonNode> dispatch(MicoCloudEventImpl<JsonNode> request) {
+        Slot slot = request.getType() == null ? defaultSlot : slotsByType.getOrDefault(request.getType(), defaultSlot);
+        return slot.call(request);
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Handlers still running after 30 s");
+        }
+        timeouts.shutdownNow();
+    }
+
+    /**
+     * A handler with its limits.
+     */
+    private final class Slot {
+
+        private final String name;
+
+        private final RequestHandler handler;
+
+        private final HandlerConfig.Limits limits;
+
+        private final Semaphore permits;
+
+        private final Timer successTimer;
+
+        private final Timer failureTimer;
+
+        private final Timer timeoutTimer;
+
+        Slot(String name, RequestHandler handler, HandlerConfig.Limits limits) {
+            this.name = name;
+            this.handler = handler;
+            this.limits = limits;
+            permits = new Semaphore(limits.getMaxConcurrency());
+            successTimer = timer("success");
+            failureTimer = timer("failure");
+            timeoutTimer = timer("timeout");
+            meterRegistry.gauge("handler.active", Tags.of("handler", name), permits,
+                    p -> limits.getMaxConcurrency() - p.availablePermits());
+        }
+
+        private Timer timer(String outcome) {
+            return Timer.builder("handler.execution").tags("handler", name, "outcome", outcome)
+                    .register(meterRegistry);
+        }
+
+        CompletableFuture<JsonNode> call(MicoCloudEventImpl<JsonNode> request) {
+            CompletableFuture<JsonNode> result = new CompletableFuture<>();
+            try {
+                // permits of timed out calls are held until their handler is done, so the wait must be bounded too
+                if (!permits.tryAcquire(limits.getTimeout().toNanos(), TimeUnit.NANOSECONDS)) {
+                    timeoutTimer.record(limits.getTimeout());
+                    result.completeExceptionally(new TimeoutException("Handler '" + name + "' stayed at its limit of "
+                            + limits.getMaxConcurrency() + " calls for " + limits.getTimeout()));
+                    return result;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.completeExceptionally(e);
+                return result;
+            }
+            long start = System.nanoTime();
+            Runnable expire = () -> {
+                if (result.completeExceptionally(new TimeoutException(
+                        "Handler '" + name + "' did not answer '" + request.getId() + "' within " + limits.getTimeout()))) {
+                    timeoutTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                }
+            };
+            // the caller's continuations run where the result is completed, which must not be the timeout thread
+            ScheduledFuture<?> timeout = timeouts.schedule(() -> {
+                try {
+                    executor.execute(new TimeoutCompletion(expire));
+                } catch (RejectedExecutionException e) {
+                    ForkJoinPool.commonPool().execute(expire);
+                }
+            }, limits.getTimeout().toNanos(), TimeUnit.NANOSECONDS);
+            try {
+                executor.execute(() -> {
+                    CompletionStage<JsonNode> stage;
+                    try {
+                        stage = handler.handle(request);
+                    } catch (RuntimeException e) {
+                        CompletableFuture<JsonNode> failed = new CompletableFuture<>();
+                        failed.completeExceptionally(e);
+                        stage = failed;
+                    }
+                    // the permit is only returned once the handler is really done, even after a timeout
+                    stage.whenComplete((data, e) -> {
+                        permits.release();
+                        timeout.cancel(false);
+                        if (e == null ? result.complete(data) : result.completeExceptionally(e)) {
+                            (e == null ? successTimer : failureTimer).record(System.nanoTime() - start,
+                                    TimeUnit.NANOSECONDS);
+                        }
+                    });
+                });
+            } catch (RejectedExecutionException e) {
+                permits.release();
+                timeout.cancel(false);
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Completes a timed out call on the handler executor, so that the
+     * continuations of the call do not hold up the timeout thread and with it
+     * every other timeout. The executor rejects it right away instead of
+     * waiting for room, the call is then completed on the common pool.
+     */
+    private static final class TimeoutCompletion implements Runnable {
+
+        private final Runnable completion;
+
+        TimeoutCompletion(Runnable completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        public void run() {
+            completion.run();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.ust.mico.requestreply.handler;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import org.springframework.stereotype.Component;
+
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+
+/**
+ * Acknowledges every request with {@code {"service":"processed"}}. This is the
+ * default handler unless another one is configured.
+ */
+@Component("processed")
+public class ProcessedRequestHandler implements RequestHandler {
+
+    @Override
+    public Set<String> getTypes() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public CompletionStage<JsonNode> handle(MicoCloudEventImpl<JsonNode> request) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("service", "processed");
+        return CompletableFuture.completedFuture(node);
+    }
+}
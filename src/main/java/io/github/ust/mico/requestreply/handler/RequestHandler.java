@@ -0,0 +1,32 @@
+package io.github.ust.mico.requestreply.handler;
+
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.github.ust.mico.requestreply.kafka.MicoCloudEventImpl;
+
+/**
+ * Computes the reply to requests of certain CloudEvent types. Handlers are
+ * picked up as beans and called on the handler executor, never on a listener
+ * thread, so they may block. The service builds the reply event around the
+ * returned data; a failed stage is answered with an error message.
+ */
+public interface RequestHandler {
+
+    /**
+     * Returns the CloudEvent types this handler answers. The handler
+     * configured as default answers all other types as well.
+     */
+    Set<String> getTypes();
+
+    /**
+     * Handles a request.
+     *
+     * @param request the request event. Data it left in the claim-check store
+     *                is already resolved.
+     * @return the data of the reply
+     */
+    CompletionStage<JsonNode> handle(MicoCloudEventImpl<JsonNode> request);
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.ust.mico.requestreply.kafka;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.cloudevents.json.Json;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * CloudEvents binary content mode for Kafka. The attributes and extensions of
+ * the event travel as {@code ce_} prefixed record headers, the content type as
+ * {@code content-type} header and the data as the plain record value. Header
+ * values are the UTF-8 text of scalar attributes or the JSON of structured
+ * ones, like the route or the routing slip. Data of other content types than
+ * JSON is kept as the raw bytes of the value and written back unchanged.
+ */
+final class BinaryContentMode {
+
+    static final String HEADER_PREFIX = "ce_";
+
+    static final String SPEC_VERSION_HEADER = HEADER_PREFIX + "specversion";
+
+    static final String CONTENT_TYPE_HEADER = "content-type";
+
+    private static final String CONTENT_TYPE_ATTRIBUTE = "contenttype";
+
+    private static final String DATA_ATTRIBUTE = "data";
+
+    private static final ObjectReader READER = Json.MAPPER
+            .readerFor(new TypeReference<MicoCloudEventImpl<JsonNode>>() {
+            });
+
+    private BinaryContentMode() {
+    }
+
+    /**
+     * Checks whether a record was written in binary content mode.
+     */
+    static boolean isBinary(Headers headers) {
+        return headers != null && headers.lastHeader(SPEC_VERSION_HEADER) != null;
+    }
+
+    /**
+     * Builds the event from the headers of a record. The value is only wrapped,
+     * JSON data stays unparsed until it is accessed, any other data is kept as
+     * binary node.
+     *
+     * @param headers the record headers
+     * @param value   the record value, the data of the event
+     */
+    static MicoCloudEventImpl<JsonNode> decode(Headers headers, byte[] value) throws IOException {
+        ObjectNode attributes = JsonNodeFactory.instance.objectNode();
+        for (Header header : headers) {
+            String name;
+            if (header.key().startsWith(HEADER_PREFIX)) {
+                name = header.key().substring(HEADER_PREFIX.length());
+            } else if (header.key().equals(CONTENT_TYPE_HEADER)) {
+                name = CONTENT_TYPE_ATTRIBUTE;
+            } else {
+                continue;
+            }
+            attributes.set(name, decodeAttribute(header.value()));
+        }
+        MicoCloudEventImpl<JsonNode> cloudEvent = READER.readValue(attributes);
+        if (value != null && value.length > 0) {
+            String contentType = cloudEvent.getContentTypeOrNull();
+            cloudEvent.setData(isJson(contentType) ? new RawJsonNode(value)
+                    : JsonNodeFactory.instance.binaryNode(value));
+        }
+        return cloudEvent;
+    }
+
+    /**
+     * Adds the attributes of the event to the headers and returns the record
+     * value. Data that was received as JSON and never touched is returned as
+     * is, so is binary data.
+     *
+     * @param cloudEvent the event to encode
+     * @param headers    the headers of the outgoing record
+     * @return the data of the event, empty if it has none
+     */
+    static byte[] encode(MicoCloudEventImpl<JsonNode> cloudEvent, Headers headers) throws IOException {
+        MicoCloudEventImpl<JsonNode> attributesOnly = new MicoCloudEventImpl<>(cloudEvent).setData(null);
+        Iterator<Map.Entry<String, JsonNode>> attributes = Json.MAPPER.<ObjectNode>valueToTree(attributesOnly)
+                .fields();
+        while (attributes.hasNext()) {
+            Map.Entry<String, JsonNode> attribute = attributes.next();
+            JsonNode value = attribute.getValue();
+            if (value.isNull() || attribute.getKey().equals(DATA_ATTRIBUTE)) {
+                continue;
+            }
+            String key = attribute.getKey().equals(CONTENT_TYPE_ATTRIBUTE) ? CONTENT_TYPE_HEADER
+                    : HEADER_PREFIX + attribute.getKey();
+            String text = value.isValueNode() ? value.asText() : value.toString();
+            headers.add(key, text.getBytes(StandardCharsets.UTF_8));
+        }
+        if (!cloudEvent.hasData()) {
+            // an empty value instead of null, which would be a tombstone
+            return new byte[0];
+        }
+        JsonNode data = cloudEvent.getRawData();
+        if (data instanceof RawJsonNode) {
+            return ((RawJsonNode) data).getBytes();
+        }
+        if (data.isBinary()) {
+            return data.binaryValue();
+        }
+        if (data.isTextual() && !isJson(cloudEvent.getContentTypeOrNull())) {
+            return data.asText().getBytes(StandardCharsets.UTF_8);
+        }
+        return Json.MAPPER.writeValueAsBytes(data);
+    }
+
+    private static JsonNode decodeAttribute(byte[] value) throws IOException {
+        if (value == null) {
+            return JsonNodeFactory.instance.nullNode();
+        }
+        if (value.length > 0 && (value[0] == '{' || value[0] == '[')) {
+            return Json.MAPPER.readTree(value);
+        }
+        return JsonNodeFactory.instance.textNode(new String(value, StandardCharsets.UTF_8));
+    }
+
+    private static boolean isJson(String contentType) {
+        return contentType == null || contentType.contains("json");
+    }
+}
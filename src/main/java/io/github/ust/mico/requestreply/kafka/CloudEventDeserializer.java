@@ -21,19 +21,67 @@ package io.github.ust.mico.requestreply.kafka;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import io.cloudevents.json.Json;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.errors.SerializationException;
-import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.serialization.ExtendedDeserializer;
 
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
+/**
+ * Reads events in structured content mode (the whole event as one document in
+ * one of the {@link CloudEventFormat}s) and in binary content mode (attributes
+ * in headers, data as value). Mode and format are detected per record.
+ * Records rejected by the {@link RecordFilter} given in the configuration are
+ * not parsed at all and deserialized to {@code null}.
+ */
 @Slf4j
-public class CloudEventDeserializer implements Deserializer<MicoCloudEventImpl<JsonNode>> {
+public class CloudEventDeserializer implements ExtendedDeserializer<MicoCloudEventImpl<JsonNode>> {
+
+    /**
+     * Reader bound to the event type once, so that neither the type resolution
+     * nor the deserializer lookup is repeated for every record. ObjectReader is
+     * immutable and therefore safe to share between consumer threads.
+     */
+    private static final ObjectReader READER = Json.MAPPER
+            .readerFor(new TypeReference<MicoCloudEventImpl<JsonNode>>() {
+            });
+
+    private CloudEventMetrics metrics = CloudEventMetrics.forDeserializer(null);
+
+    private RecordFilter filter;
+
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
+        metrics = CloudEventMetrics.forDeserializer(configs);
+        Object filter = configs == null ? null : configs.get(RecordFilter.FILTER_CONFIG);
+        this.filter = filter instanceof RecordFilter ? (RecordFilter) filter : null;
+    }
 
+    @Override
+    public MicoCloudEventImpl<JsonNode> deserialize(String topic, Headers headers, byte[] data) {
+        boolean binary = BinaryContentMode.isBinary(headers);
+        CloudEventFormat format = binary ? null : CloudEventFormat.of(headers);
+        if (filter != null && filter.reject(topic, headers, data, format)) {
+            return null;
+        }
+        if (format == CloudEventFormat.JSON || data == null && !binary) {
+            return deserialize(topic, data);
+        }
+        long start = System.nanoTime();
+        try {
+            MicoCloudEventImpl<JsonNode> micoCloudEvent = binary ? BinaryContentMode.decode(headers, data)
+                    : format.getReader().readValue(data);
+            metrics.record(topic, start, data == null ? 0 : data.length);
+            return logResult(micoCloudEvent, topic);
+        } catch (IOException e) {
+            throw new SerializationException("Could not create an CloudEvent message", e);
+        }
     }
 
     @Override
@@ -41,22 +89,56 @@ public class CloudEventDeserializer implements Deserializer<MicoCloudEventImpl<J
         if (data == null) {
             return null;
         }
+        long start = System.nanoTime();
         try {
-            String message = new String(data, StandardCharsets.UTF_8);
-            log.debug("Trying to parse the message:" + message);
-            MicoCloudEventImpl<JsonNode> micoCloudEvent = Json.decodeValue(message,
-                    new TypeReference<MicoCloudEventImpl<JsonNode>>() {
-                    });
-            log.debug("Deserialized micoCloudEvent '{}' on topic: '{}'", micoCloudEvent.toString(), topic);
+            MicoCloudEventImpl<JsonNode> micoCloudEvent = READER.readValue(data);
+            metrics.record(topic, start, data.length);
+            return logResult(micoCloudEvent, topic);
+        } catch (IOException e) {
+            throw new SerializationException("Could not create an CloudEvent message", e);
+        }
+    }
 
-            if (!micoCloudEvent.getData().isPresent()) {
+    /**
+     * Parses the event directly from the given buffer without copying the
+     * remaining bytes into an intermediate array or string first.
+     *
+     * @param topic the topic the record was received on
+     * @param data  the serialized event, read from its position to its limit
+     * @return the event or {@code null} if {@code data} is {@code null}
+     */
+    public MicoCloudEventImpl<JsonNode> deserialize(String topic, ByteBuffer data) {
+        if (data == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int size = data.remaining();
+        try {
+            MicoCloudEventImpl<JsonNode> micoCloudEvent;
+            if (data.hasArray()) {
+                int offset = data.arrayOffset() + data.position();
+                ObjectReader reader = offset == 0 ? READER
+                        : READER.withAttribute(RawJsonNodeDeserializer.SOURCE_OFFSET, offset);
+                micoCloudEvent = reader.readValue(data.array(), offset, size);
+            } else {
+                micoCloudEvent = READER.readValue(new ByteBufferBackedInputStream(data.duplicate()));
+            }
+            metrics.record(topic, start, size);
+            return logResult(micoCloudEvent, topic);
+        } catch (IOException e) {
+            throw new SerializationException("Could not create an CloudEvent message", e);
+        }
+    }
+
+    private MicoCloudEventImpl<JsonNode> logResult(MicoCloudEventImpl<JsonNode> micoCloudEvent, String topic) {
+        if (log.isDebugEnabled()) {
+            log.debug("Deserialized micoCloudEvent '{}' on topic: '{}'", micoCloudEvent, topic);
+            if (!micoCloudEvent.hasData()) {
                 // data is entirely optional
                 log.debug("Received message does not include any data!");
             }
-            return micoCloudEvent;
-        } catch (IllegalStateException e) {
-            throw new SerializationException("Could not create an CloudEvent message", e);
         }
+        return micoCloudEvent;
     }
 
     @Override
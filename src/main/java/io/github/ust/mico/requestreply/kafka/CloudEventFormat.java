@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.ust.mico.requestreply.kafka;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import io.cloudevents.json.Json;
+import io.cloudevents.json.ZonedDateTimeDeserializer;
+import io.cloudevents.json.ZonedDateTimeSerializer;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Locale;
+
+/**
+ * Encodings of an event in structured content mode. JSON is the default and
+ * needs no marker. Events in any other format carry its content type, e.g.
+ * {@code application/cloudevents+smile}, in the {@code content-type} record
+ * header.
+ */
+public enum CloudEventFormat {
+
+    JSON(Json.MAPPER), SMILE(mapper(new SmileFactory())), CBOR(mapper(new CBORFactory()));
+
+    private static final String CONTENT_TYPE_PREFIX = "application/cloudevents+";
+
+    private final String contentType;
+
+    private final ObjectReader reader;
+
+    private final ObjectWriter writer;
+
+    CloudEventFormat(ObjectMapper mapper) {
+        TypeReference<MicoCloudEventImpl<JsonNode>> type = new TypeReference<MicoCloudEventImpl<JsonNode>>() {
+        };
+        this.contentType = CONTENT_TYPE_PREFIX + name().toLowerCase(Locale.ROOT);
+        this.reader = mapper.readerFor(type);
+        this.writer = mapper.writerFor(type);
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public ObjectReader getReader() {
+        return reader;
+    }
+
+    public ObjectWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * Looks up a format by its configuration name, e.g. {@code smile}.
+     *
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static CloudEventFormat forName(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Detects the format of a structured mode record from its
+     * {@code content-type} header. Records without a CloudEvents content type
+     * are JSON.
+     */
+    public static CloudEventFormat of(Headers headers) {
+        Header header = headers == null ? null : headers.lastHeader(BinaryContentMode.CONTENT_TYPE_HEADER);
+        if (header == null || header.value() == null) {
+            return JSON;
+        }
+        String contentType = new String(header.value(), StandardCharsets.UTF_8);
+        if (!contentType.startsWith(CONTENT_TYPE_PREFIX)) {
+            return JSON;
+        }
+        for (CloudEventFormat format : values()) {
+            if (contentType.startsWith(format.contentType)) {
+                return format;
+            }
+        }
+        return JSON;
+    }
+
+    /**
+     * Creates a mapper for another data format, configured like
+     * {@link Json#MAPPER}.
+     */
+    private static ObjectMapper mapper(JsonFactory factory) {
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(ZonedDateTime.class, new ZonedDateTimeSerializer());
+        module.addDeserializer(ZonedDateTime.class, new ZonedDateTimeDeserializer());
+        return new ObjectMapper(factory).registerModule(new Jdk8Module()).registerModule(module);
+    }
+}
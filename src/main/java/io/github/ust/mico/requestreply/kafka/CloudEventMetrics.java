@@ -0,0 +1,77 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers and size distributions of the CloudEvent serializer and
+ * deserializer, cached per topic. Kafka creates these outside of the
+ * application context, so the registry is passed in through the client
+ * configuration.
+ */
+public class CloudEventMetrics {
+
+    /**
+     * Client configuration key under which the {@link MeterRegistry} is passed.
+     * Falls back to the global registry if absent.
+     */
+    public static final String METER_REGISTRY_CONFIG = "mico.meter-registry";
+
+    private final MeterRegistry registry;
+
+    private final String timerName;
+
+    private final String sizeName;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> sizes = new ConcurrentHashMap<>();
+
+    private CloudEventMetrics(MeterRegistry registry, String timerName, String sizeName) {
+        this.registry = registry;
+        this.timerName = timerName;
+        this.sizeName = sizeName;
+    }
+
+    public static CloudEventMetrics forDeserializer(Map<String, ?> configs) {
+        return new CloudEventMetrics(registry(configs), "cloudevent.deserialize", "cloudevent.size.in");
+    }
+
+    public static CloudEventMetrics forSerializer(Map<String, ?> configs) {
+        return new CloudEventMetrics(registry(configs), "cloudevent.serialize", "cloudevent.size.out");
+    }
+
+    private static MeterRegistry registry(Map<String, ?> configs) {
+        Object registry = configs == null ? null : configs.get(METER_REGISTRY_CONFIG);
+        return registry instanceof MeterRegistry ? (MeterRegistry) registry : Metrics.globalRegistry;
+    }
+
+    /**
+     * Records one encoded or decoded event.
+     *
+     * @param topic       the topic of the record
+     * @param startNanos  {@link System#nanoTime()} before the codec started
+     * @param sizeInBytes the size of the serialized event
+     */
+    public void record(String topic, long startNanos, int sizeInBytes) {
+        String key = topic == null ? "" : topic;
+        // get before computeIfAbsent, which locks on Java 8 even if the key exists
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = timers.computeIfAbsent(key, t -> Timer.builder(timerName).tag("topic", t).register(registry));
+        }
+        timer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary size = sizes.get(key);
+        if (size == null) {
+            size = sizes.computeIfAbsent(key, t -> DistributionSummary.builder(sizeName).baseUnit("bytes")
+                    .tag("topic", t).register(registry));
+        }
+        size.record(sizeInBytes);
+    }
+}
@@ -19,30 +19,190 @@
 
 package io.github.ust.mico.requestreply.kafka;
 
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
-import io.cloudevents.json.Json;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.config.ConfigException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ExtendedSerializer;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Writes events in structured content mode, in the {@link CloudEventFormat}
+ * configured for the topic, or, if {@link #CONTENT_MODE_CONFIG} is
+ * {@code binary}, in binary content mode.
+ */
 @Slf4j
-public class CloudEventSerializer implements Serializer<MicoCloudEventImpl<JsonNode>> {
+public class CloudEventSerializer implements ExtendedSerializer<MicoCloudEventImpl<JsonNode>> {
+
+    /**
+     * Client configuration key of the content mode, {@code structured} (the
+     * default) or {@code binary}.
+     */
+    public static final String CONTENT_MODE_CONFIG = "mico.content-mode";
+
+    /**
+     * Client configuration key of the default structured mode format,
+     * {@code json} if absent.
+     */
+    public static final String FORMAT_CONFIG = "mico.format";
+
+    /**
+     * Client configuration key of the formats of single topics, as comma
+     * separated {@code topic:format} pairs.
+     */
+    public static final String TOPIC_FORMATS_CONFIG = "mico.topic-formats";
+
+    /**
+     * Per thread output buffer. The generator writes UTF-8 directly into it, so
+     * the only allocation left per record is the final array handed to Kafka.
+     * After a reset the builder keeps its last block (at most 256 KB), which
+     * bounds the memory retained per thread.
+     */
+    private static final ThreadLocal<ByteArrayBuilder> BUFFERS = ThreadLocal.withInitial(ByteArrayBuilder::new);
+
+    /**
+     * The encoding to reuse within {@link #withSharedEncoding(Runnable)}.
+     */
+    private static final ThreadLocal<SharedEncoding> SHARED_ENCODINGS = new ThreadLocal<>();
+
+    private CloudEventMetrics metrics = CloudEventMetrics.forSerializer(null);
+
+    private boolean binary;
+
+    private CloudEventFormat defaultFormat = CloudEventFormat.JSON;
+
+    private final Map<String, CloudEventFormat> topicFormats = new HashMap<>();
+
     @Override
     public void configure(Map<String, ?> configs, boolean isKey) {
+        metrics = CloudEventMetrics.forSerializer(configs);
+        if (configs == null) {
+            return;
+        }
+        binary = "binary".equals(configs.get(CONTENT_MODE_CONFIG));
+        Object format = configs.get(FORMAT_CONFIG);
+        if (format != null && !format.toString().isEmpty()) {
+            defaultFormat = format(FORMAT_CONFIG, format.toString());
+        }
+        Object formats = configs.get(TOPIC_FORMATS_CONFIG);
+        if (formats != null && !formats.toString().trim().isEmpty()) {
+            for (String topicFormat : formats.toString().split(",")) {
+                int separator = topicFormat.lastIndexOf(':');
+                if (separator < 0) {
+                    throw new ConfigException(TOPIC_FORMATS_CONFIG, formats, "Expected topic:format pairs");
+                }
+                topicFormats.put(topicFormat.substring(0, separator).trim(),
+                        format(TOPIC_FORMATS_CONFIG, topicFormat.substring(separator + 1)));
+            }
+        }
+    }
 
+    private static CloudEventFormat format(String config, String name) {
+        try {
+            return CloudEventFormat.forName(name);
+        } catch (IllegalArgumentException e) {
+            throw new ConfigException(config, name, "Unknown format");
+        }
+    }
+
+    /**
+     * Runs the given sends with one encoding per event. Inside, an event that
+     * is sent to several topics with the same format is encoded for the first
+     * one only, the others get the same bytes and headers. KafkaProducer
+     * serializes on the thread calling send, so the sends have to happen on the
+     * calling thread, and the events must not be modified in between. Reused
+     * encodings are not recorded as serializations in the metrics.
+     *
+     * @param sends the sends sharing the encodings
+     */
+    public static void withSharedEncoding(Runnable sends) {
+        SharedEncoding previous = SHARED_ENCODINGS.get();
+        SHARED_ENCODINGS.set(new SharedEncoding());
+        try {
+            sends.run();
+        } finally {
+            SHARED_ENCODINGS.set(previous);
+        }
     }
 
+    @Override
+    public byte[] serialize(String topic, Headers headers, MicoCloudEventImpl<JsonNode> data) {
+        if (data == null) {
+            return null;
+        }
+        // null stands for binary content mode
+        CloudEventFormat format = binary ? null : topicFormats.getOrDefault(topic, defaultFormat);
+        SharedEncoding shared = SHARED_ENCODINGS.get();
+        if (shared == null) {
+            return encode(topic, headers, data, format);
+        }
+        if (!shared.holds(data, format)) {
+            Headers encodedHeaders = new RecordHeaders();
+            byte[] value = encode(topic, encodedHeaders, data, format);
+            shared.hold(data, format, value, encodedHeaders.toArray());
+        }
+        for (Header header : shared.headers) {
+            headers.add(header);
+        }
+        return shared.value;
+    }
+
+    private byte[] encode(String topic, Headers headers, MicoCloudEventImpl<JsonNode> data, CloudEventFormat format) {
+        if (format != null) {
+            if (format != CloudEventFormat.JSON) {
+                headers.add(BinaryContentMode.CONTENT_TYPE_HEADER,
+                        format.getContentType().getBytes(StandardCharsets.UTF_8));
+            }
+            return serialize(topic, data, format);
+        }
+        long start = System.nanoTime();
+        try {
+            byte[] value = BinaryContentMode.encode(data, headers);
+            metrics.record(topic, start, value.length);
+            if (log.isDebugEnabled()) {
+                log.debug("Serialized the event:'{}' in binary mode to {} bytes for topic '{}'", data, value.length,
+                        topic);
+            }
+            return value;
+        } catch (IOException e) {
+            throw new SerializationException("Could not serialize the CloudEvent message", e);
+        }
+    }
+
+    /**
+     * Writes the event as JSON document. Without access to the headers there
+     * is no way to mark another format.
+     */
     @Override
     public byte[] serialize(String topic, MicoCloudEventImpl<JsonNode> data) {
         if (data == null)
             return null;
-        else {
-            String eventAsString = Json.encode(data);
-            byte[] eventAsBytes = eventAsString.getBytes(StandardCharsets.UTF_8);
-            log.debug("Serializing the event:'{}' to '{}'", data, eventAsString);
+        return serialize(topic, data, CloudEventFormat.JSON);
+    }
+
+    private byte[] serialize(String topic, MicoCloudEventImpl<JsonNode> data, CloudEventFormat format) {
+        long start = System.nanoTime();
+        ByteArrayBuilder buffer = BUFFERS.get();
+        try {
+            format.getWriter().writeValue(buffer, data);
+            byte[] eventAsBytes = buffer.toByteArray();
+            metrics.record(topic, start, eventAsBytes.length);
+            if (log.isDebugEnabled()) {
+                log.debug("Serialized the event:'{}' to {} bytes for topic '{}'", data, eventAsBytes.length, topic);
+            }
             return eventAsBytes;
+        } catch (IOException e) {
+            throw new SerializationException("Could not serialize the CloudEvent message", e);
+        } finally {
+            buffer.reset();
         }
     }
 
@@ -50,4 +210,26 @@ public class CloudEventSerializer implements Serializer<MicoCloudEventImpl<JsonN
     public void close() {
 
     }
+
+    private static final class SharedEncoding {
+
+        private MicoCloudEventImpl<JsonNode> event;
+
+        private CloudEventFormat format;
+
+        private byte[] value;
+
+        private Header[] headers;
+
+        boolean holds(MicoCloudEventImpl<JsonNode> event, CloudEventFormat format) {
+            return value != null && this.event == event && this.format == format;
+        }
+
+        void hold(MicoCloudEventImpl<JsonNode> event, CloudEventFormat format, byte[] value, Header[] headers) {
+            this.event = event;
+            this.format = format;
+            this.value = value;
+            this.headers = headers;
+        }
+    }
 }
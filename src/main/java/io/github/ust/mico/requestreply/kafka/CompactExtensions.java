@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.ust.mico.requestreply.kafka;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import io.cloudevents.Extension;
+
+/**
+ * Map of the extensions of an event, kept in two small arrays in insertion
+ * order. Events carry only a few extensions, so a linear scan beats hashing and
+ * an empty map allocates nothing but itself. Copies share the arrays until one
+ * side is modified.
+ */
+final class CompactExtensions extends AbstractMap<String, JsonNode> {
+
+    private static final String[] NO_KEYS = {};
+
+    private static final JsonNode[] NO_VALUES = {};
+
+    private String[] keys = NO_KEYS;
+
+    private JsonNode[] values = NO_VALUES;
+
+    private int size;
+
+    /**
+     * Whether the arrays may be referenced by another map and have to be copied
+     * before they are modified.
+     */
+    private boolean shared;
+
+    /**
+     * The extensions as returned by {@link MicoCloudEventImpl#getExtensions()},
+     * built on first use.
+     */
+    private List<Extension> extensionList;
+
+    CompactExtensions() {
+    }
+
+    /**
+     * Creates a map with the same entries. A {@link CompactExtensions} shares
+     * its arrays with the copy.
+     */
+    static CompactExtensions copyOf(Map<String, JsonNode> extensions) {
+        CompactExtensions copy = new CompactExtensions();
+        if (extensions instanceof CompactExtensions) {
+            CompactExtensions original = (CompactExtensions) extensions;
+            original.shared = true;
+            copy.keys = original.keys;
+            copy.values = original.values;
+            copy.size = original.size;
+            copy.shared = true;
+            copy.extensionList = original.extensionList;
+        } else if (extensions != null) {
+            copy.putAll(extensions);
+        }
+        return copy;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public JsonNode get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    @Override
+    public JsonNode put(String key, JsonNode value) {
+        int index = indexOf(key);
+        if (index >= 0 && values[index] == value) {
+            return value;
+        }
+        prepareWrite(index >= 0 ? size : size + 1);
+        if (index >= 0) {
+            JsonNode previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        keys[size] = key;
+        values[size] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public JsonNode remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        prepareWrite(size);
+        JsonNode previous = values[index];
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        keys = NO_KEYS;
+        values = NO_VALUES;
+        size = 0;
+        shared = false;
+        extensionList = null;
+    }
+
+    @Override
+    public Set<Entry<String, JsonNode>> entrySet() {
+        return new AbstractSet<Entry<String, JsonNode>>() {
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<Entry<String, JsonNode>> iterator() {
+                return new Iterator<Entry<String, JsonNode>>() {
+
+                    private int next;
+
+                    private boolean removable;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Entry<String, JsonNode> next() {
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        removable = true;
+                        int index = next++;
+                        return new SimpleImmutableEntry<>(keys[index], values[index]);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (!removable) {
+                            throw new IllegalStateException();
+                        }
+                        removable = false;
+                        prepareWrite(size);
+                        removeAt(--next);
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Returns the extensions as {@link UnknownExtension}s. The list is kept
+     * until the map is modified.
+     */
+    List<Extension> asExtensionList() {
+        if (extensionList == null) {
+            List<Extension> extensions = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                extensions.add(new UnknownExtension(keys[i], values[i]));
+            }
+            extensionList = Collections.unmodifiableList(extensions);
+        }
+        return extensionList;
+    }
+
+    private int indexOf(Object key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Makes the arrays private to this map and large enough for the given number
+     * of entries.
+     */
+    private void prepareWrite(int capacity) {
+        if (shared || capacity > keys.length) {
+            int length = Math.max(capacity, keys.length < capacity ? Math.max(4, keys.length * 2) : keys.length);
+            keys = Arrays.copyOf(keys, length);
+            values = Arrays.copyOf(values, length);
+            shared = false;
+        }
+        extensionList = null;
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        size--;
+        keys[size] = null;
+        values[size] = null;
+    }
+}
@@ -0,0 +1,34 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.KafkaException;
+
+/**
+ * Thrown by a batch listener after it processed its batch, naming the records
+ * that failed. The {@link RetryTopicBatchErrorHandler} hands exactly these to
+ * the retry topics and commits the rest of the batch.
+ */
+public class FailedRecordsException extends KafkaException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient Map<ConsumerRecord<?, ?>, Exception> failures;
+
+    /**
+     * @param failures the failed records and their failures. A failure may be
+     *                 {@code null} for a record that could not be
+     *                 deserialized.
+     */
+    public FailedRecordsException(Map<? extends ConsumerRecord<?, ?>, ? extends Exception> failures) {
+        super(failures.size() + " records of the batch failed");
+        this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+    }
+
+    public Map<ConsumerRecord<?, ?>, Exception> getFailures() {
+        return failures;
+    }
+}
@@ -1,11 +1,14 @@
 package io.github.ust.mico.requestreply.kafka;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.kafka.clients.consumer.ConsumerConfig;
 import org.apache.kafka.common.serialization.StringDeserializer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
@@ -13,11 +16,15 @@ import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
 import org.springframework.kafka.config.KafkaListenerContainerFactory;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.listener.ConcurrentMessageListenerContainer;
-import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
+import org.springframework.kafka.listener.ContainerProperties.AckMode;
 import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer2;
 
 import io.github.ust.mico.requestreply.MessageListener;
+import io.github.ust.mico.requestreply.configuration.RecordFilterConfig;
+import io.github.ust.mico.requestreply.configuration.RetryTopicConfig;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 @EnableKafka
@@ -31,6 +38,32 @@ public class KafkaConsumerConfig {
         @Value("${kafka.group-id}")
         private String groupId;
 
+        @Value("${kafka.input-topic}")
+        private String inputTopic;
+
+        @Value("${kafka.sender.send-timeout-ms}")
+        private long sendTimeoutMs;
+
+        /**
+         * Whether the listeners fail to start if the input topic does not exist
+         * or the broker cannot be reached. Only turned off for the training run
+         * of the class data sharing archive, which has no broker.
+         */
+        @Value("${kafka.missing-topics-fatal}")
+        private boolean missingTopicsFatal;
+
+        @Autowired
+        private MeterRegistry meterRegistry;
+
+        @Autowired
+        private RetryTopicConfig retryTopicConfig;
+
+        @Autowired
+        private RecordFilterConfig recordFilterConfig;
+
+        @Autowired
+        private KafkaTemplate<String, byte[]> retryKafkaTemplate;
+
         @Bean
         public Map<String, Object> consumerConfigs() {
                 log.info("Using '{}' as bootstrap server", bootstrapServers);
@@ -41,6 +74,10 @@ public class KafkaConsumerConfig {
                 // https://docs.spring.io/spring-kafka/docs/2.2.0.RELEASE/reference/html/_reference.html#error-handling-deserializer
                 properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ErrorHandlingDeserializer2.class);
                 properties.put(ErrorHandlingDeserializer2.VALUE_DESERIALIZER_CLASS, CloudEventDeserializer.class);
+                properties.put(CloudEventMetrics.METER_REGISTRY_CONFIG, meterRegistry);
+                if (recordFilterConfig.isEnabled()) {
+                        properties.put(RecordFilter.FILTER_CONFIG, recordFilter());
+                }
                 properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
                 properties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
 
@@ -56,12 +93,83 @@ public class KafkaConsumerConfig {
         public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, String>> kafkaListenerContainerFactory() {
                 ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
                 factory.setConsumerFactory(consumerFactory());
-                factory.setErrorHandler(new SeekToCurrentErrorHandler(1));
-                // TODO Add DeadLetterPublishingRecoverer later
+                factory.getContainerProperties().setMissingTopicsFatal(missingTopicsFatal);
+                // a failed record is handed to the retry topics right away, the partition is not held up
+                factory.setErrorHandler(new RetryTopicErrorHandler(retryTopicRecoverer()));
+                if (recordFilterConfig.isEnabled()) {
+                        factory.setRecordFilterStrategy(recordFilter());
+                }
+                return factory;
+        }
+
+        /**
+         * Discards records of the input topic before they are deserialized.
+         * Only used if {@code kafka.filter.enabled} is set.
+         */
+        @Bean
+        public RecordFilter recordFilter() {
+                return new RecordFilter(inputTopic, recordFilterConfig.getTypes(), recordFilterConfig.getSources(),
+                                recordFilterConfig.isDropTestMessages(), recordFilterConfig.isFilterOutBeforeTopic(),
+                                recordFilterConfig.getDivertTopic(), retryKafkaTemplate, meterRegistry);
+        }
+
+        /**
+         * Publishes records failing in a listener to the retry topics of the
+         * input topic, and finally to its dead-letter topic.
+         */
+        @Bean
+        public RetryTopicRecoverer retryTopicRecoverer() {
+                return new RetryTopicRecoverer(retryKafkaTemplate, retryTopicConfig.retryTopics(inputTopic),
+                                retryTopicConfig.getDelays(), retryTopicConfig.deadLetterTopic(inputTopic),
+                                Duration.ofMillis(sendTimeoutMs), meterRegistry);
+        }
+
+        /**
+         * Container factory delivering whole poll batches, used by the
+         * {@link io.github.ust.mico.requestreply.BatchMessageListener}.
+         */
+        @Bean
+        public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, String>> batchKafkaListenerContainerFactory() {
+                ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+                factory.setConsumerFactory(consumerFactory());
+                factory.getContainerProperties().setMissingTopicsFatal(missingTopicsFatal);
+                factory.setBatchListener(true);
+                // failed records go to the retry topics, the rest of the batch is committed
+                factory.setBatchErrorHandler(new RetryTopicBatchErrorHandler(retryTopicRecoverer()));
+                factory.getContainerProperties().setAckOnError(false);
+                if (recordFilterConfig.isEnabled()) {
+                        factory.setRecordFilterStrategy(recordFilter());
+                }
+                return factory;
+        }
+
+        /**
+         * Container factory for the
+         * {@link io.github.ust.mico.requestreply.ParallelMessageListener}. It
+         * delivers poll batches and commits their offsets only when the listener
+         * acknowledges them, which it does after all records are processed.
+         */
+        @Bean
+        public KafkaListenerContainerFactory<ConcurrentMessageListenerContainer<String, String>> parallelKafkaListenerContainerFactory() {
+                Map<String, Object> properties = new HashMap<>(consumerConfigs());
+                properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+                ConcurrentKafkaListenerContainerFactory<String, String> factory = new ConcurrentKafkaListenerContainerFactory<>();
+                factory.setConsumerFactory(new DefaultKafkaConsumerFactory<>(properties));
+                factory.getContainerProperties().setMissingTopicsFatal(missingTopicsFatal);
+                factory.setBatchListener(true);
+                factory.getContainerProperties().setAckMode(AckMode.MANUAL_IMMEDIATE);
+                factory.setBatchErrorHandler(new RetryTopicBatchErrorHandler(retryTopicRecoverer()));
+                factory.getContainerProperties().setAckOnError(false);
+                if (recordFilterConfig.isEnabled()) {
+                        factory.setRecordFilterStrategy(recordFilter());
+                        // a batch of discarded records never reaches the listener, which would acknowledge it
+                        factory.setAckDiscarded(true);
+                }
                 return factory;
         }
 
         @Bean
+        @ConditionalOnProperty(name = "kafka.listener-mode", havingValue = "record", matchIfMissing = true)
         public MessageListener receiver() {
                 return new MessageListener();
         }
@@ -6,15 +6,19 @@ import java.util.Map;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafka;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.core.ProducerFactory;
 
+import io.github.ust.mico.requestreply.configuration.ProducerBatchingConfig;
+import io.github.ust.mico.requestreply.configuration.ProducerBatchingConfig.Profile;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 
 @EnableKafka
@@ -25,6 +29,30 @@ public class KafkaSenderConfig {
   @Value("${kafka.bootstrap-servers}")
   private String bootstrapServers;
 
+  /**
+   * Content mode of the replies, structured or binary.
+   */
+  @Value("${kafka.sender.content-mode}")
+  private String contentMode;
+
+  /**
+   * Format of structured replies, json, smile or cbor.
+   */
+  @Value("${kafka.sender.format}")
+  private String format;
+
+  /**
+   * Formats of single topics as comma separated topic:format pairs.
+   */
+  @Value("${kafka.sender.topic-formats}")
+  private String topicFormats;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @Autowired
+  private ProducerBatchingConfig batchingConfig;
+
   @Bean
   public Map<String, Object> producerConfigs() {
     log.info("SenderConfig using '{}' as bootstrap server", bootstrapServers);
@@ -32,16 +60,39 @@ public class KafkaSenderConfig {
     props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
     props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
     props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, CloudEventSerializer.class);
+    Profile profile = batchingConfig.getProfiles().get(batchingConfig.getProfile());
+    if (profile == null) {
+      throw new IllegalStateException("Unknown producer profile '" + batchingConfig.getProfile() + "'");
+    }
+    log.info("SenderConfig using producer profile '{}'", batchingConfig.getProfile());
+    props.put(ProducerConfig.LINGER_MS_CONFIG, profile.getLingerMs());
+    props.put(ProducerConfig.BATCH_SIZE_CONFIG, profile.getBatchSize());
+    props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, profile.getCompressionType());
+    props.put(CloudEventSerializer.CONTENT_MODE_CONFIG, contentMode);
+    props.put(CloudEventSerializer.FORMAT_CONFIG, format);
+    props.put(CloudEventSerializer.TOPIC_FORMATS_CONFIG, topicFormats);
+    props.put(CloudEventMetrics.METER_REGISTRY_CONFIG, meterRegistry);
     return props;
   }
 
   @Bean
-  public ProducerFactory<String, MicoCloudEventImpl<JsonNode>> producerFactory() {
-    return new DefaultKafkaProducerFactory<>(producerConfigs());
+  public ReconfigurableProducerFactory<String, MicoCloudEventImpl<JsonNode>> producerFactory() {
+    return new ReconfigurableProducerFactory<>(producerConfigs());
   }
 
   @Bean
   public KafkaTemplate<String, MicoCloudEventImpl<JsonNode>> kafkaTemplate() {
     return new KafkaTemplate<>(producerFactory());
   }
+
+  /**
+   * Template of the retry and dead-letter topics, whose records are published
+   * as they are handed over by the {@link RetryTopicRecoverer}.
+   */
+  @Bean
+  public KafkaTemplate<String, byte[]> retryKafkaTemplate() {
+    Map<String, Object> props = new HashMap<>(producerConfigs());
+    props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+    return new KafkaTemplate<>(new DefaultKafkaProducerFactory<>(props));
+  }
 }
@@ -19,9 +19,12 @@
 
 package io.github.ust.mico.requestreply.kafka;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
@@ -31,11 +34,12 @@ import io.cloudevents.Extension;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 
 import java.net.URI;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -45,30 +49,49 @@ import java.util.UUID;
 /**
  * For more information read
  * https://mico-docs.readthedocs.io/en/latest/messaging/cloudevents.html
+ * <p>
+ * Jackson reads and writes the fields directly, so serializing an event does
+ * not go through the {@link Optional} getters. Code that reads events per
+ * record uses the {@code ...OrNull} accessors instead of them, which return
+ * the fields without wrapping them.
  */
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
 @Accessors(chain = true)
+@ToString(doNotUseGetters = true)
 @JsonDeserialize(as = MicoCloudEventImpl.class)
 @JsonNaming(value = PropertyNamingStrategy.LowerCaseStrategy.class)
+@JsonAutoDetect(fieldVisibility = Visibility.ANY, getterVisibility = Visibility.NONE, isGetterVisibility = Visibility.NONE)
 public class MicoCloudEventImpl<T> implements CloudEvent<T> {
 
     protected static final String SPEC_VERSION = "0.2";
 
     // mandatory
     private String id;
+    @JsonDeserialize(using = RecurringValues.RecurringUriDeserializer.class)
     private URI source;
+    @JsonDeserialize(using = RecurringValues.RecurringStringDeserializer.class)
     private String type;
+    @JsonDeserialize(using = RecurringValues.RecurringStringDeserializer.class)
     private String specVersion = SPEC_VERSION;
 
     // Optional
     private ZonedDateTime time;
+    @JsonDeserialize(using = RecurringValues.RecurringUriDeserializer.class)
     private URI schemaURL;
+    @JsonDeserialize(using = RecurringValues.RecurringStringDeserializer.class)
     private String contentType;
+    /**
+     * Received data is kept as {@link RawJsonNode} until {@link #getData()} is
+     * called. Jackson reads and writes the field directly, so untouched data is
+     * written back without ever being parsed.
+     */
+    @JsonProperty("data")
+    @JsonDeserialize(using = RawJsonNodeDeserializer.class)
     private T data;
     @JsonIgnore
-    private Map<String, JsonNode> extensionsMap = new HashMap<>();
+    private Map<String, JsonNode> extensionsMap = new CompactExtensions();
 
     private String correlationId;
     private String createdFrom;
@@ -83,19 +106,24 @@ public class MicoCloudEventImpl<T> implements CloudEvent<T> {
     private String sequenceId;
     private Integer sequenceNumber;
     private Integer sequenceSize;
+    @JsonDeserialize(using = RecurringValues.RecurringStringDeserializer.class)
     private String returnTopic;
     private String dataRef;
     private String subject;
 
     /**
-     * Copy constructor providing a shallow copy of the cloud event.
+     * Copy constructor providing a shallow copy of the cloud event. The copy
+     * shares the data, but has its own extensions, route and routing slip. The
+     * extensions are only copied once either event modifies them.
      *
      * @param cloudEvent the event to copy
      */
     public MicoCloudEventImpl(MicoCloudEventImpl<T> cloudEvent) {
         this(cloudEvent.id, cloudEvent.source, cloudEvent.type, cloudEvent.specVersion, cloudEvent.time,
-                cloudEvent.schemaURL, cloudEvent.contentType, cloudEvent.data, cloudEvent.extensionsMap,
-                cloudEvent.correlationId, cloudEvent.createdFrom, cloudEvent.route, cloudEvent.routingSlip,
+                cloudEvent.schemaURL, cloudEvent.contentType, cloudEvent.data,
+                CompactExtensions.copyOf(cloudEvent.extensionsMap), cloudEvent.correlationId,
+                cloudEvent.createdFrom, cloudEvent.route == null ? null : new ArrayList<>(cloudEvent.route),
+                cloudEvent.routingSlip == null ? null : new LinkedList<>(cloudEvent.routingSlip),
                 cloudEvent.isTestMessage, cloudEvent.filterOutBeforeTopic, cloudEvent.isErrorMessage,
                 cloudEvent.errorMessage, cloudEvent.errorTrace, cloudEvent.expiryDate, cloudEvent.sequenceId,
                 cloudEvent.sequenceNumber, cloudEvent.sequenceSize, cloudEvent.returnTopic, cloudEvent.dataRef,
@@ -112,16 +140,19 @@ public class MicoCloudEventImpl<T> implements CloudEvent<T> {
         specVersion = cloudEvent.getSpecVersion();
         source = cloudEvent.getSource();
         type = cloudEvent.getType();
-        data = cloudEvent.getData().orElse(null);
-        contentType = cloudEvent.getContentType().orElse(null);
-        schemaURL = cloudEvent.getSchemaURL().orElse(null);
-        extensionsMap = cloudEvent.getExtensionsAsMap().orElse(new HashMap<String, JsonNode>());
-        time = cloudEvent.getTime().orElse(null);
+        data = cloudEvent.data;
+        contentType = cloudEvent.contentType;
+        schemaURL = cloudEvent.schemaURL;
+        extensionsMap = CompactExtensions.copyOf(cloudEvent.extensionsMap);
+        time = cloudEvent.time;
         return this;
     }
 
     @JsonAnySetter
     public void setExtension(String key, JsonNode value) {
+        if (extensionsMap == null) {
+            extensionsMap = new CompactExtensions();
+        }
         extensionsMap.put(key, value);
     }
 
@@ -142,10 +173,47 @@ public class MicoCloudEventImpl<T> implements CloudEvent<T> {
         return Optional.ofNullable(contentType);
     }
 
+    /**
+     * Returns the data, parsing it first if it was received but not accessed
+     * yet.
+     */
+    @JsonIgnore
+    @SuppressWarnings("unchecked")
     public Optional<T> getData() {
+        if (data instanceof RawJsonNode) {
+            data = (T) ((RawJsonNode) data).materialize();
+        }
         return Optional.ofNullable(data);
     }
 
+    /**
+     * Like {@link #getData()}, but returns {@code null} instead of an empty
+     * {@link Optional}.
+     */
+    @JsonIgnore
+    @SuppressWarnings("unchecked")
+    public T getDataOrNull() {
+        if (data instanceof RawJsonNode) {
+            data = (T) ((RawJsonNode) data).materialize();
+        }
+        return data;
+    }
+
+    /**
+     * Returns the data as it is, without parsing received data.
+     */
+    @JsonIgnore
+    public T getRawData() {
+        return data;
+    }
+
+    /**
+     * Checks for data without parsing it.
+     */
+    public boolean hasData() {
+        return data != null;
+    }
+
     @JsonIgnore
     public Optional<Map<String, JsonNode>> getExtensionsAsMap() {
         return Optional.ofNullable(extensionsMap);
@@ -158,6 +226,9 @@ public class MicoCloudEventImpl<T> implements CloudEvent<T> {
     @Deprecated
     @JsonIgnore
     public Optional<List<Extension>> getExtensions() {
+        if (extensionsMap instanceof CompactExtensions) {
+            return Optional.of(((CompactExtensions) extensionsMap).asExtensionList());
+        }
         List<Extension> extensionList = new LinkedList<>();
         this.extensionsMap.forEach((key, value) -> {
             extensionList.add(new UnknownExtension(key, value));
@@ -228,4 +299,52 @@ public class MicoCloudEventImpl<T> implements CloudEvent<T> {
     public Optional<String> getSubject() {
         return Optional.ofNullable(subject);
     }
+
+    public ZonedDateTime getTimeOrNull() {
+        return time;
+    }
+
+    public String getContentTypeOrNull() {
+        return contentType;
+    }
+
+    public String getCorrelationIdOrNull() {
+        return correlationId;
+    }
+
+    public LinkedList<List<String>> getRoutingSlipOrNull() {
+        return routingSlip;
+    }
+
+    /**
+     * @return whether the event is marked as test message, {@code false} if it
+     *         is not marked at all
+     */
+    public boolean isTestMessageOrFalse() {
+        return Boolean.TRUE.equals(isTestMessage);
+    }
+
+    public ZonedDateTime getExpiryDateOrNull() {
+        return expiryDate;
+    }
+
+    public String getSequenceIdOrNull() {
+        return sequenceId;
+    }
+
+    public Integer getSequenceNumberOrNull() {
+        return sequenceNumber;
+    }
+
+    public Integer getSequenceSizeOrNull() {
+        return sequenceSize;
+    }
+
+    public String getReturnTopicOrNull() {
+        return returnTopic;
+    }
+
+    public String getDataRefOrNull() {
+        return dataRef;
+    }
 }
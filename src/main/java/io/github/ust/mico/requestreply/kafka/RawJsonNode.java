@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.ust.mico.requestreply.kafka;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.ValueNode;
+import io.cloudevents.json.Json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Placeholder for the {@code data} of a received event. It keeps the raw
+ * UTF-8 JSON of the value instead of a parsed tree. {@link MicoCloudEventImpl}
+ * only parses it when the data is requested, and serializes it back byte by
+ * byte if nobody did.
+ */
+public class RawJsonNode extends ValueNode {
+
+    private final byte[] json;
+
+    public RawJsonNode(byte[] json) {
+        this.json = json;
+    }
+
+    /**
+     * @return the raw UTF-8 JSON, must not be modified
+     */
+    public byte[] getBytes() {
+        return json;
+    }
+
+    /**
+     * Parses the raw JSON into a tree.
+     *
+     * @return the parsed value
+     */
+    public JsonNode materialize() {
+        try {
+            return Json.MAPPER.readTree(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not parse the data of the CloudEvent", e);
+        }
+    }
+
+    /**
+     * Copies the raw JSON into textual JSON output. Other formats, which cannot
+     * embed raw JSON, get the parsed value.
+     */
+    @Override
+    public void serialize(JsonGenerator gen, SerializerProvider provider) throws IOException {
+        if (gen instanceof JsonGeneratorImpl) {
+            gen.writeRawValue(new RawBytes());
+        } else {
+            materialize().serialize(gen, provider);
+        }
+    }
+
+    @Override
+    public JsonToken asToken() {
+        return JsonToken.VALUE_EMBEDDED_OBJECT;
+    }
+
+    @Override
+    public JsonNodeType getNodeType() {
+        return JsonNodeType.POJO;
+    }
+
+    @Override
+    public String asText() {
+        return new String(json, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o == this || (o instanceof RawJsonNode && Arrays.equals(json, ((RawJsonNode) o).json));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(json);
+    }
+
+    @Override
+    public String toString() {
+        return asText();
+    }
+
+    /**
+     * Hands the raw bytes to the generator. Byte based generators copy them as
+     * they are, character based ones fall back to the decoded string.
+     */
+    private class RawBytes implements SerializableString {
+
+        @Override
+        public String getValue() {
+            return asText();
+        }
+
+        @Override
+        public int charLength() {
+            return getValue().length();
+        }
+
+        @Override
+        public char[] asQuotedChars() {
+            return getValue().toCharArray();
+        }
+
+        @Override
+        public byte[] asUnquotedUTF8() {
+            return json;
+        }
+
+        @Override
+        public byte[] asQuotedUTF8() {
+            return json;
+        }
+
+        @Override
+        public int appendQuotedUTF8(byte[] buffer, int offset) {
+            return appendUnquotedUTF8(buffer, offset);
+        }
+
+        @Override
+        public int appendQuoted(char[] buffer, int offset) {
+            return appendUnquoted(buffer, offset);
+        }
+
+        @Override
+        public int appendUnquotedUTF8(byte[] buffer, int offset) {
+            if (offset + json.length > buffer.length) {
+                return -1;
+            }
+            System.arraycopy(json, 0, buffer, offset, json.length);
+            return json.length;
+        }
+
+        @Override
+        public int appendUnquoted(char[] buffer, int offset) {
+            String value = getValue();
+            if (offset + value.length() > buffer.length) {
+                return -1;
+            }
+            value.getChars(0, value.length(), buffer, offset);
+            return value.length();
+        }
+
+        @Override
+        public int writeQuotedUTF8(OutputStream out) throws IOException {
+            return writeUnquotedUTF8(out);
+        }
+
+        @Override
+        public int writeUnquotedUTF8(OutputStream out) throws IOException {
+            out.write(json);
+            return json.length;
+        }
+
+        @Override
+        public int putQuotedUTF8(ByteBuffer buffer) {
+            return putUnquotedUTF8(buffer);
+        }
+
+        @Override
+        public int putUnquotedUTF8(ByteBuffer buffer) {
+            if (json.length > buffer.remaining()) {
+                return -1;
+            }
+            buffer.put(json);
+            return json.length;
+        }
+    }
+}
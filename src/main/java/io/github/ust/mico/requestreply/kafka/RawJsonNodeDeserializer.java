@@ -0,0 +1,62 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.ust.mico.requestreply.kafka;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.json.UTF8StreamJsonParser;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Captures a JSON value as {@link RawJsonNode} by skipping over it and copying
+ * the bytes it spans. This only works if the parser reads UTF-8 JSON from a
+ * byte array, otherwise the value is parsed into a regular tree.
+ */
+public class RawJsonNodeDeserializer extends JsonDeserializer<JsonNode> {
+
+    /**
+     * Context attribute holding the offset of the parsed document within its
+     * byte array, if it does not start at index 0. The parser reports byte
+     * offsets relative to the start of the document.
+     */
+    public static final String SOURCE_OFFSET = RawJsonNodeDeserializer.class.getName() + ".sourceOffset";
+
+    @Override
+    public JsonNode deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        JsonLocation start = p.getTokenLocation();
+        if (!(p instanceof UTF8StreamJsonParser) || !(start.getSourceRef() instanceof byte[])
+                || start.getByteOffset() < 0) {
+            return p.readValueAsTree();
+        }
+        p.skipChildren();
+        // scalar tokens, strings in particular, may not be fully read yet
+        p.finishToken();
+        Object sourceOffset = ctxt.getAttribute(SOURCE_OFFSET);
+        int offset = sourceOffset == null ? 0 : (Integer) sourceOffset;
+        int from = offset + (int) start.getByteOffset();
+        int to = offset + (int) p.getCurrentLocation().getByteOffset();
+        return new RawJsonNode(Arrays.copyOfRange((byte[]) start.getSourceRef(), from, to));
+    }
+}
@@ -0,0 +1,198 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.core.DefaultKafkaProducerFactory;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Producer factory whose settings can be changed at runtime. The changed
+ * settings are applied by detaching the shared producer, the next send creates
+ * a new one. Callers must not send while {@link #reconfigure(Map)} runs, but
+ * the detached producer is returned to them and closed afterwards, so sends
+ * do not have to wait until it has handed over its records.
+ * <p>
+ * The shared producer is kept here rather than in the base class, which only
+ * closes it in place. Only non-transactional producers are supported.
+ */
+@Slf4j
+public class ReconfigurableProducerFactory<K, V> extends DefaultKafkaProducerFactory<K, V> {
+
+  private volatile Map<String, Object> overrides = Collections.emptyMap();
+
+  private volatile SharedProducer<K, V> producer;
+
+  private volatile Duration closeTimeout = Duration.ofSeconds(30);
+
+  public ReconfigurableProducerFactory(Map<String, Object> configs) {
+    super(configs);
+  }
+
+  @Override
+  public void setPhysicalCloseTimeout(int physicalCloseTimeout) {
+    super.setPhysicalCloseTimeout(physicalCloseTimeout);
+    this.closeTimeout = Duration.ofSeconds(physicalCloseTimeout);
+  }
+
+  /**
+   * Switches to a producer with the given settings on top of the initial
+   * configuration. The current producer is detached and returned, it still
+   * has to be closed with {@link #close(Producer)}, which waits for the
+   * records already handed to it.
+   *
+   * @param overrides the settings to change
+   * @return the detached producer, or {@code null} if none was created yet
+   */
+  public synchronized Producer<K, V> reconfigure(Map<String, Object> overrides) {
+    log.info("Recreating the producer with {}", overrides);
+    this.overrides = Collections.unmodifiableMap(new HashMap<>(overrides));
+    SharedProducer<K, V> detached = producer;
+    producer = null;
+    return detached == null ? null : detached.delegate;
+  }
+
+  /**
+   * Closes a producer returned by {@link #reconfigure(Map)}, waiting at most
+   * the physical close timeout for its outstanding records.
+   *
+   * @param detached the detached producer, may be {@code null}
+   */
+  public void close(Producer<K, V> detached) {
+    if (detached != null) {
+      detached.close(closeTimeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @return the configuration the current producer was created with
+   */
+  public Map<String, Object> getEffectiveConfiguration() {
+    Map<String, Object> configs = new HashMap<>(getConfigurationProperties());
+    configs.putAll(overrides);
+    return configs;
+  }
+
+  @Override
+  public Producer<K, V> createProducer() {
+    SharedProducer<K, V> shared = producer;
+    if (shared == null) {
+      synchronized (this) {
+        shared = producer;
+        if (shared == null) {
+          shared = new SharedProducer<>(createKafkaProducer());
+          producer = shared;
+        }
+      }
+    }
+    return shared;
+  }
+
+  @Override
+  protected Producer<K, V> createKafkaProducer() {
+    return new KafkaProducer<>(getEffectiveConfiguration());
+  }
+
+  @Override
+  public void destroy() throws Exception {
+    Producer<K, V> detached;
+    synchronized (this) {
+      detached = producer == null ? null : producer.delegate;
+      producer = null;
+    }
+    close(detached);
+    super.destroy();
+  }
+
+  /**
+   * The shared producer as handed to templates, which close it after every
+   * send. Closing is left to the factory.
+   */
+  private static final class SharedProducer<K, V> implements Producer<K, V> {
+
+    private final Producer<K, V> delegate;
+
+    SharedProducer(Producer<K, V> delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<K, V> record) {
+      return delegate.send(record);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<K, V> record, Callback callback) {
+      return delegate.send(record, callback);
+    }
+
+    @Override
+    public void flush() {
+      delegate.flush();
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic) {
+      return delegate.partitionsFor(topic);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+      return delegate.metrics();
+    }
+
+    @Override
+    public void initTransactions() {
+      throw new UnsupportedOperationException("The shared producer is not transactional");
+    }
+
+    @Override
+    public void beginTransaction() {
+      throw new UnsupportedOperationException("The shared producer is not transactional");
+    }
+
+    @Override
+    public void sendOffsetsToTransaction(Map<TopicPartition, OffsetAndMetadata> offsets, String consumerGroupId) {
+      throw new UnsupportedOperationException("The shared producer is not transactional");
+    }
+
+    @Override
+    public void commitTransaction() {
+      throw new UnsupportedOperationException("The shared producer is not transactional");
+    }
+
+    @Override
+    public void abortTransaction() {
+      throw new UnsupportedOperationException("The shared producer is not transactional");
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void close(long timeout, TimeUnit unit) {
+    }
+
+    @Override
+    public String toString() {
+      return "SharedProducer [" + delegate + "]";
+    }
+  }
+}
@@ -0,0 +1,270 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.adapter.RecordFilterStrategy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Discards records of one topic by the attributes {@code type},
+ * {@code source}, {@code istestmessage} and {@code filteroutbeforetopic}
+ * without building the event. The {@link CloudEventDeserializer} asks the
+ * filter before it parses a record: binary content mode records are judged by
+ * their headers, structured ones by a token scan of their top level fields,
+ * which skips the data and stops as soon as all wanted attributes are seen. A
+ * rejected record is deserialized to {@code null} and marked with the
+ * {@link #FILTERED_HEADER}.
+ * <p>
+ * As {@link RecordFilterStrategy} of the listener containers the filter then
+ * removes the marked records, so the listeners never see them, and publishes
+ * them unchanged to the divert topic if there is one. Diverted records are
+ * sent without waiting for the broker, their offsets may be committed before.
+ */
+@Slf4j
+public class RecordFilter implements RecordFilterStrategy<Object, Object> {
+
+    /**
+     * Client configuration key of the filter used by the deserializer.
+     */
+    public static final String FILTER_CONFIG = "mico.record-filter";
+
+    /**
+     * Header marking a rejected record, holding the reason.
+     */
+    public static final String FILTERED_HEADER = "mico-filtered";
+
+    /**
+     * Header holding the value of a rejected record that is to be diverted.
+     */
+    private static final String FILTERED_VALUE_HEADER = "mico-filtered-value";
+
+    private static final String TYPE = "type";
+
+    private static final String SOURCE = "source";
+
+    private static final String IS_TEST_MESSAGE = "istestmessage";
+
+    private static final String FILTER_OUT_BEFORE_TOPIC = "filteroutbeforetopic";
+
+    private final String topic;
+
+    private final Set<String> types;
+
+    private final List<String> sources;
+
+    private final boolean dropTestMessages;
+
+    private final boolean filterOutBeforeTopic;
+
+    private final String divertTopic;
+
+    private final KafkaTemplate<String, byte[]> template;
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Number of attributes the scan has to find before it can stop early.
+     */
+    private final int wantedAttributes;
+
+    /**
+     * @param topic                the topic to filter, records of other topics
+     *                             are accepted
+     * @param types                the types to accept, empty for any
+     * @param sources              the source prefixes to accept, empty for any
+     * @param dropTestMessages     whether to reject test messages
+     * @param filterOutBeforeTopic whether to reject test messages whose
+     *                             {@code filterOutBeforeTopic} is the topic
+     * @param divertTopic          the topic to publish rejected records to,
+     *                             {@code null} or empty to drop them
+     * @param template             publishes diverted records
+     * @param meterRegistry        registry of the filter counter
+     */
+    public RecordFilter(String topic, Collection<String> types, Collection<String> sources,
+            boolean dropTestMessages, boolean filterOutBeforeTopic, String divertTopic,
+            KafkaTemplate<String, byte[]> template, MeterRegistry meterRegistry) {
+        this.topic = topic;
+        this.types = new HashSet<>(types);
+        this.sources = new ArrayList<>(sources);
+        this.dropTestMessages = dropTestMessages;
+        this.filterOutBeforeTopic = filterOutBeforeTopic;
+        this.divertTopic = divertTopic == null || divertTopic.isEmpty() ? null : divertTopic;
+        this.template = template;
+        this.meterRegistry = meterRegistry;
+        this.wantedAttributes = (this.types.isEmpty() ? 0 : 1) + (this.sources.isEmpty() ? 0 : 1)
+                + (dropTestMessages || filterOutBeforeTopic ? 1 : 0) + (filterOutBeforeTopic ? 1 : 0);
+    }
+
+    /**
+     * Judges a record before it is deserialized and marks it if it is
+     * rejected.
+     *
+     * @param topic   the topic of the record
+     * @param headers the record headers
+     * @param data    the record value
+     * @param format  the format of a structured mode record, {@code null} for
+     *                binary content mode
+     * @return whether the record is rejected
+     */
+    boolean reject(String topic, Headers headers, byte[] data, CloudEventFormat format) {
+        if (wantedAttributes == 0 || !this.topic.equals(topic)) {
+            return false;
+        }
+        Attributes attributes = format == null ? fromHeaders(headers) : scan(data, format);
+        String reason = attributes == null ? null : reasonToReject(attributes);
+        if (reason == null) {
+            return false;
+        }
+        headers.add(FILTERED_HEADER, reason.getBytes(StandardCharsets.UTF_8));
+        if (divertTopic != null && data != null) {
+            headers.add(FILTERED_VALUE_HEADER, data);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean filter(ConsumerRecord<Object, Object> record) {
+        return discard(record);
+    }
+
+    /**
+     * Discards a record marked by the deserializer and diverts it.
+     *
+     * @return whether the record is discarded
+     */
+    public boolean discard(ConsumerRecord<?, ?> record) {
+        Header filtered = record.headers().lastHeader(FILTERED_HEADER);
+        if (filtered == null) {
+            return false;
+        }
+        String reason = new String(filtered.value(), StandardCharsets.UTF_8);
+        meterRegistry.counter("listener.filtered", "reason", reason).increment();
+        if (log.isDebugEnabled()) {
+            log.debug("Discarding record at offset {} of partition {}-{} by its {}", record.offset(),
+                    record.topic(), record.partition(), reason);
+        }
+        if (divertTopic != null) {
+            divert(record);
+        }
+        return true;
+    }
+
+    private void divert(ConsumerRecord<?, ?> record) {
+        Headers headers = new RecordHeaders(record.headers().toArray());
+        Header value = headers.lastHeader(FILTERED_VALUE_HEADER);
+        headers.remove(FILTERED_VALUE_HEADER);
+        String key = record.key() instanceof String ? (String) record.key() : null;
+        byte[] data = value == null ? null : value.value();
+        template.send(new ProducerRecord<>(divertTopic, null, key, data, headers)).addCallback(result -> {
+        }, e -> log.error("Could not divert record at offset {} of partition {}-{} to '{}'", record.offset(),
+                record.topic(), record.partition(), divertTopic, e));
+    }
+
+    private String reasonToReject(Attributes attributes) {
+        if (!types.isEmpty() && !types.contains(attributes.type)) {
+            return TYPE;
+        }
+        if (!sources.isEmpty() && (attributes.source == null
+                || sources.stream().noneMatch(attributes.source::startsWith))) {
+            return SOURCE;
+        }
+        if (attributes.isTestMessage) {
+            if (dropTestMessages) {
+                return "test-message";
+            }
+            if (filterOutBeforeTopic && topic.equals(attributes.filterOutBeforeTopic)) {
+                return "filter-out-before-topic";
+            }
+        }
+        return null;
+    }
+
+    private static Attributes fromHeaders(Headers headers) {
+        Attributes attributes = new Attributes();
+        attributes.type = text(headers, BinaryContentMode.HEADER_PREFIX + TYPE);
+        attributes.source = text(headers, BinaryContentMode.HEADER_PREFIX + SOURCE);
+        attributes.isTestMessage = "true".equals(text(headers, BinaryContentMode.HEADER_PREFIX + IS_TEST_MESSAGE));
+        attributes.filterOutBeforeTopic = text(headers, BinaryContentMode.HEADER_PREFIX + FILTER_OUT_BEFORE_TOPIC);
+        return attributes;
+    }
+
+    private static String text(Headers headers, String key) {
+        Header header = headers.lastHeader(key);
+        return header == null || header.value() == null ? null : new String(header.value(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the wanted attributes from the top level of the document. Nested
+     * values, the data in particular, are skipped without being built.
+     *
+     * @return the attributes or {@code null} if the value is no document,
+     *         which is left to the deserializer to report
+     */
+    private Attributes scan(byte[] data, CloudEventFormat format) {
+        if (data == null) {
+            return null;
+        }
+        Attributes attributes = new Attributes();
+        int found = 0;
+        try (JsonParser parser = format.getReader().getFactory().createParser(data)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (found < wantedAttributes && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (name) {
+                case TYPE:
+                    attributes.type = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    found += types.isEmpty() ? 0 : 1;
+                    break;
+                case SOURCE:
+                    attributes.source = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    found += sources.isEmpty() ? 0 : 1;
+                    break;
+                case IS_TEST_MESSAGE:
+                    attributes.isTestMessage = value == JsonToken.VALUE_TRUE;
+                    found += dropTestMessages || filterOutBeforeTopic ? 1 : 0;
+                    break;
+                case FILTER_OUT_BEFORE_TOPIC:
+                    attributes.filterOutBeforeTopic = value == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    found += filterOutBeforeTopic ? 1 : 0;
+                    break;
+                default:
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return attributes;
+    }
+
+    private static class Attributes {
+
+        private String type;
+
+        private String source;
+
+        private boolean isTestMessage;
+
+        private String filterOutBeforeTopic;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package io.github.ust.mico.requestreply.kafka;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.deser.std.FromStringDeserializer;
+import com.fasterxml.jackson.databind.deser.std.StringDeserializer;
+
+/**
+ * Caches of attribute values that recur in nearly every event of a topic, like
+ * the source, the type or the return topic. Values are looked up straight from
+ * the characters of the parser, so a recurring value neither allocates a new
+ * string nor parses a new {@link URI}. The caches are small direct-mapped
+ * tables; a colliding value replaces the cached one.
+ */
+final class RecurringValues {
+
+    private static final int SLOTS = 256;
+
+    /**
+     * Longer values are rarely recurring attributes, they are not cached.
+     */
+    private static final int MAX_LENGTH = 256;
+
+    private static final AtomicReferenceArray<String> STRINGS = new AtomicReferenceArray<>(SLOTS);
+
+    private static final AtomicReferenceArray<URI> URIS = new AtomicReferenceArray<>(SLOTS);
+
+    private RecurringValues() {
+    }
+
+    static String string(char[] chars, int offset, int length) {
+        int slot = slot(chars, offset, length);
+        String cached = STRINGS.get(slot);
+        if (cached != null && matches(cached, chars, offset, length)) {
+            return cached;
+        }
+        String value = new String(chars, offset, length);
+        if (length <= MAX_LENGTH) {
+            STRINGS.lazySet(slot, value);
+        }
+        return value;
+    }
+
+    private static int slot(char[] chars, int offset, int length) {
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        return (hash ^ hash >>> 16) & SLOTS - 1;
+    }
+
+    private static boolean matches(String value, char[] chars, int offset, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != chars[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deserializes recurring string attributes.
+     */
+    static final class RecurringStringDeserializer extends JsonDeserializer<String> {
+
+        @Override
+        public String deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.hasToken(JsonToken.VALUE_STRING)) {
+                return StringDeserializer.instance.deserialize(p, ctxt);
+            }
+            return string(p.getTextCharacters(), p.getTextOffset(), p.getTextLength());
+        }
+    }
+
+    /**
+     * Deserializes recurring URI attributes. {@link URI#toString()} returns the
+     * parsed string, so comparing with it is free.
+     */
+    static final class RecurringUriDeserializer extends JsonDeserializer<URI> {
+
+        private static final JsonDeserializer<?> FALLBACK = FromStringDeserializer.findDeserializer(URI.class);
+
+        @Override
+        public URI deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            if (!p.hasToken(JsonToken.VALUE_STRING) || p.getTextLength() > MAX_LENGTH) {
+                return (URI) FALLBACK.deserialize(p, ctxt);
+            }
+            char[] chars = p.getTextCharacters();
+            int offset = p.getTextOffset();
+            int length = p.getTextLength();
+            int slot = slot(chars, offset, length);
+            URI cached = URIS.get(slot);
+            if (cached != null && matches(cached.toString(), chars, offset, length)) {
+                return cached;
+            }
+            URI uri = (URI) FALLBACK.deserialize(p, ctxt);
+            if (uri != null) {
+                URIS.lazySet(slot, uri);
+            }
+            return uri;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.kafka.listener.ContainerAwareBatchErrorHandler;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Batch counterpart of the {@link RetryTopicErrorHandler}. The records a
+ * listener names in a {@link FailedRecordsException} are handed to the
+ * {@link RetryTopicRecoverer}, and the offsets of the whole batch are
+ * committed, so a failed record does not hold up its partition. If the listener
+ * failed without naming records, every record of the batch is handed over.
+ * <p>
+ * Only if a record cannot be published, its partition is sought back to it,
+ * so it and the records after it are redelivered. The records before it and
+ * the other partitions are still committed.
+ */
+@Slf4j
+public class RetryTopicBatchErrorHandler implements ContainerAwareBatchErrorHandler {
+
+    private static final Comparator<ConsumerRecord<?, ?>> BY_OFFSET = Comparator
+            .comparingLong(ConsumerRecord::offset);
+
+    private final RetryTopicRecoverer recoverer;
+
+    public RetryTopicBatchErrorHandler(RetryTopicRecoverer recoverer) {
+        this.recoverer = recoverer;
+    }
+
+    @Override
+    public void handle(Exception thrownException, ConsumerRecords<?, ?> data, Consumer<?, ?> consumer,
+            MessageListenerContainer container) {
+        Map<ConsumerRecord<?, ?>, Exception> failures = failuresOf(thrownException, data);
+        List<ConsumerRecord<?, ?>> failed = new ArrayList<>(failures.keySet());
+        failed.sort(BY_OFFSET);
+        Map<TopicPartition, Long> seekTo = new HashMap<>();
+        for (ConsumerRecord<?, ?> record : failed) {
+            TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+            if (seekTo.containsKey(partition)) {
+                // redelivered anyway
+                continue;
+            }
+            try {
+                recoverer.accept(record, failures.get(record));
+            } catch (RuntimeException e) {
+                log.error("Could not hand record at offset {} of partition {}-{} to the retry topics, seeking back",
+                        record.offset(), record.topic(), record.partition(), e);
+                seekTo.put(partition, record.offset());
+            }
+        }
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = new LinkedHashMap<>();
+        for (TopicPartition partition : data.partitions()) {
+            List<? extends ConsumerRecord<?, ?>> records = data.records(partition);
+            long next = seekTo.containsKey(partition) ? seekTo.get(partition)
+                    : records.get(records.size() - 1).offset() + 1;
+            offsets.put(partition, new OffsetAndMetadata(next));
+        }
+        seekTo.forEach(consumer::seek);
+        consumer.commitSync(offsets);
+    }
+
+    /**
+     * Returns the records named by the listener, or all records of the batch
+     * if it did not name any.
+     */
+    private static Map<ConsumerRecord<?, ?>, Exception> failuresOf(Exception thrownException,
+            ConsumerRecords<?, ?> data) {
+        for (Throwable cause = thrownException; cause != null; cause = cause.getCause()) {
+            if (cause instanceof FailedRecordsException) {
+                return ((FailedRecordsException) cause).getFailures();
+            }
+        }
+        log.error("Batch listener failed, handing all {} records to the retry topics", data.count(),
+                thrownException);
+        Map<ConsumerRecord<?, ?>, Exception> failures = new LinkedHashMap<>();
+        data.forEach(record -> failures.put(record, thrownException));
+        return failures;
+    }
+}
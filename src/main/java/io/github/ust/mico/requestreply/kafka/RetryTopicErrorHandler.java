@@ -0,0 +1,49 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.listener.SeekToCurrentErrorHandler;
+import org.springframework.kafka.support.SeekUtils;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hands a failed record to the {@link RetryTopicRecoverer} right away. If the
+ * recoverer cannot publish it, the failed record and the remaining records of
+ * the poll are sought back, so the record is redelivered instead of lost.
+ * {@link SeekToCurrentErrorHandler} itself lets the exception of the recoverer
+ * escape before seeking, and the container then moves on past the record.
+ */
+@Slf4j
+public class RetryTopicErrorHandler extends SeekToCurrentErrorHandler {
+
+    /**
+     * Logger in the form {@link SeekUtils} takes.
+     */
+    private static final Log SEEK_LOG = LogFactory.getLog(RetryTopicErrorHandler.class);
+
+    public RetryTopicErrorHandler(RetryTopicRecoverer recoverer) {
+        super(recoverer, 1);
+    }
+
+    @Override
+    public void handle(Exception thrownException, List<ConsumerRecord<?, ?>> records, Consumer<?, ?> consumer,
+            MessageListenerContainer container) {
+        try {
+            super.handle(thrownException, records, consumer, container);
+        } catch (RuntimeException e) {
+            if (!records.isEmpty()) {
+                ConsumerRecord<?, ?> record = records.get(0);
+                log.error("Could not hand record at offset {} of partition {}-{} to the retry topics, seeking back",
+                        record.offset(), record.topic(), record.partition(), e);
+                SeekUtils.doSeeks(records, consumer, thrownException, false, (failed, exception) -> false, SEEK_LOG);
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package io.github.ust.mico.requestreply.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.springframework.kafka.KafkaException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.listener.ListenerExecutionFailedException;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.kafka.support.serializer.DeserializationException;
+import org.springframework.kafka.support.serializer.ErrorHandlingDeserializer2;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes records that failed in a listener to the next retry topic, or to
+ * the dead-letter topic once all retry topics are used up. Used by the
+ * {@link RetryTopicErrorHandler} of the record listeners, the
+ * {@link RetryTopicBatchErrorHandler} of the batch and parallel listeners and
+ * by the reactive mode directly, in all of them before the offset of the
+ * record is committed. The partition of the record is not blocked while
+ * it is retried.
+ * <p>
+ * The failure is described in the {@code kafka_dlt-*} headers of Spring Kafka.
+ * The original topic, partition, offset and timestamp are those of the first
+ * failure, the exception headers those of the last one. A record that could
+ * not be deserialized goes to the dead-letter topic straight away, with its
+ * original bytes as value. Any other record is published as its event in
+ * structured JSON, which the listeners of the retry topics read like any
+ * request.
+ */
+@Slf4j
+public class RetryTopicRecoverer implements BiConsumer<ConsumerRecord<?, ?>, Exception> {
+
+    /**
+     * Header holding the number of retry topics the record went through.
+     */
+    public static final String RETRY_ATTEMPT_HEADER = "mico-retry-attempt";
+
+    /**
+     * Header holding the time in epoch milliseconds at which a record on a
+     * retry topic is due.
+     */
+    public static final String RETRY_DUE_HEADER = "mico-retry-due";
+
+    private final KafkaTemplate<String, byte[]> template;
+
+    private final List<String> retryTopics;
+
+    private final List<Duration> delays;
+
+    private final String deadLetterTopic;
+
+    private final Duration sendTimeout;
+
+    private final MeterRegistry meterRegistry;
+
+    private final CloudEventSerializer serializer = new CloudEventSerializer();
+
+    /**
+     * @param template        publishes the records
+     * @param retryTopics     the retry topics, in order
+     * @param delays          the delay of each retry topic
+     * @param deadLetterTopic the dead-letter topic
+     * @param sendTimeout     how long to wait for the broker to acknowledge a
+     *                        record
+     * @param meterRegistry   registry of the retry and dead-letter counters
+     */
+    public RetryTopicRecoverer(KafkaTemplate<String, byte[]> template, List<String> retryTopics,
+            List<Duration> delays, String deadLetterTopic, Duration sendTimeout, MeterRegistry meterRegistry) {
+        this.template = template;
+        this.retryTopics = retryTopics;
+        this.delays = delays;
+        this.deadLetterTopic = deadLetterTopic;
+        this.sendTimeout = sendTimeout;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Publishes the failed record and waits for the broker to acknowledge it,
+     * so the offset of the record is only committed once it is safe elsewhere.
+     *
+     * @param record    the failed record
+     * @param exception the failure, may be {@code null} for a record the
+     *                  listener skipped because it could not be deserialized
+     * @throws KafkaException if the record could not be published
+     */
+    @Override
+    public void accept(ConsumerRecord<?, ?> record, Exception exception) {
+        int attempt = attempt(record);
+        Headers headers = new RecordHeaders(record.headers().toArray());
+        DeserializationException deserializationException = deserializationException(record, exception);
+        byte[] value;
+        String topic;
+        if (deserializationException != null) {
+            value = deserializationException.getData();
+            topic = deadLetterTopic;
+            // the serialized exception holds the data once more
+            headers.remove(ErrorHandlingDeserializer2.VALUE_DESERIALIZER_EXCEPTION_HEADER);
+            headers.remove(ErrorHandlingDeserializer2.KEY_DESERIALIZER_EXCEPTION_HEADER);
+            exception = deserializationException;
+        } else {
+            topic = attempt < retryTopics.size() ? retryTopics.get(attempt) : deadLetterTopic;
+            value = encode(topic, record.value(), headers);
+        }
+
+        addOriginHeaders(record, headers);
+        addExceptionHeaders(exception, headers);
+        headers.remove(RETRY_ATTEMPT_HEADER);
+        headers.remove(RETRY_DUE_HEADER);
+        if (!topic.equals(deadLetterTopic)) {
+            headers.add(RETRY_ATTEMPT_HEADER, ByteBuffer.allocate(Integer.BYTES).putInt(attempt + 1).array());
+            long due = System.currentTimeMillis() + delays.get(attempt).toMillis();
+            headers.add(RETRY_DUE_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(due).array());
+        }
+
+        String key = record.key() instanceof String ? (String) record.key() : null;
+        try {
+            template.send(new ProducerRecord<>(topic, null, key, value, headers)).get(sendTimeout.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new KafkaException("Interrupted while publishing the failed record to " + topic, e);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new KafkaException("Could not publish the failed record to " + topic, e);
+        }
+        if (topic.equals(deadLetterTopic)) {
+            log.error("Published record at offset {} of partition {}-{} to the dead-letter topic '{}'",
+                    record.offset(), record.topic(), record.partition(), topic, exception);
+            meterRegistry.counter("listener.dead-letters", "reason",
+                    deserializationException != null ? "deserialization" : "exhausted").increment();
+        } else {
+            log.warn("Published record at offset {} of partition {}-{} to the retry topic '{}': {}",
+                    record.offset(), record.topic(), record.partition(), topic, String.valueOf(exception));
+            meterRegistry.counter("listener.retries", "topic", topic).increment();
+        }
+    }
+
+    /**
+     * Returns the number of retry topics the record went through.
+     */
+    public static int attempt(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(RETRY_ATTEMPT_HEADER);
+        return header == null ? 0 : ByteBuffer.wrap(header.value()).getInt();
+    }
+
+    /**
+     * Returns the time in epoch milliseconds at which the record is due, or
+     * {@code 0} if it is not a retry.
+     */
+    public static long due(ConsumerRecord<?, ?> record) {
+        Header header = record.headers().lastHeader(RETRY_DUE_HEADER);
+        return header == null ? 0 : ByteBuffer.wrap(header.value()).getLong();
+    }
+
+    @SuppressWarnings("unchecked")
+    private byte[] encode(String topic, Object value, Headers headers) {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        // attributes of binary content mode would take precedence over the document
+        for (Header header : headers.toArray()) {
+            if (header.key().startsWith(BinaryContentMode.HEADER_PREFIX)
+                    || header.key().equals(BinaryContentMode.CONTENT_TYPE_HEADER)) {
+                headers.remove(header.key());
+            }
+        }
+        return serializer.serialize(topic, (MicoCloudEventImpl<JsonNode>) value);
+    }
+
+    private static DeserializationException deserializationException(ConsumerRecord<?, ?> record,
+            Exception exception) {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof DeserializationException) {
+                return (DeserializationException) cause;
+            }
+        }
+        Header header = record.headers().lastHeader(ErrorHandlingDeserializer2.VALUE_DESERIALIZER_EXCEPTION_HEADER);
+        if (header == null) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(header.value()))) {
+            return (DeserializationException) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Could not read the deserialization exception of record at offset {} of partition {}-{}",
+                    record.offset(), record.topic(), record.partition(), e);
+            return null;
+        }
+    }
+
+    private static void addOriginHeaders(ConsumerRecord<?, ?> record, Headers headers) {
+        if (headers.lastHeader(KafkaHeaders.DLT_ORIGINAL_TOPIC) != null) {
+            return;
+        }
+        headers.add(KafkaHeaders.DLT_ORIGINAL_TOPIC, record.topic().getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.DLT_ORIGINAL_PARTITION,
+                ByteBuffer.allocate(Integer.BYTES).putInt(record.partition()).array());
+        headers.add(KafkaHeaders.DLT_ORIGINAL_OFFSET, ByteBuffer.allocate(Long.BYTES).putLong(record.offset()).array());
+        headers.add(KafkaHeaders.DLT_ORIGINAL_TIMESTAMP,
+                ByteBuffer.allocate(Long.BYTES).putLong(record.timestamp()).array());
+        headers.add(KafkaHeaders.DLT_ORIGINAL_TIMESTAMP_TYPE,
+                record.timestampType().toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void addExceptionHeaders(Exception exception, Headers headers) {
+        headers.remove(KafkaHeaders.DLT_EXCEPTION_FQCN);
+        headers.remove(KafkaHeaders.DLT_EXCEPTION_MESSAGE);
+        headers.remove(KafkaHeaders.DLT_EXCEPTION_STACKTRACE);
+        if (exception == null) {
+            return;
+        }
+        Throwable cause = exception;
+        while ((cause instanceof ListenerExecutionFailedException || cause instanceof CompletionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        StringWriter trace = new StringWriter();
+        cause.printStackTrace(new PrintWriter(trace));
+        headers.add(KafkaHeaders.DLT_EXCEPTION_FQCN, cause.getClass().getName().getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.DLT_EXCEPTION_MESSAGE,
+                String.valueOf(cause.getMessage()).getBytes(StandardCharsets.UTF_8));
+        headers.add(KafkaHeaders.DLT_EXCEPTION_STACKTRACE, trace.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
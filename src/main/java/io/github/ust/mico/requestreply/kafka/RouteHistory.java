@@ -22,6 +22,8 @@ package io.github.ust.mico.requestreply.kafka;
 import java.time.ZonedDateTime;
 import java.util.Optional;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 
 import lombok.AllArgsConstructor;
@@ -34,9 +36,12 @@ import lombok.experimental.Accessors;
 @AllArgsConstructor
 @Accessors(chain = true)
 @JsonDeserialize(as = RouteHistory.class)
+@JsonAutoDetect(fieldVisibility = Visibility.ANY, getterVisibility = Visibility.NONE, isGetterVisibility = Visibility.NONE)
 public class RouteHistory {
 
+    @JsonDeserialize(using = RecurringValues.RecurringStringDeserializer.class)
     private String type;
+    @JsonDeserialize(using = RecurringValues.RecurringStringDeserializer.class)
     private String id;
     private ZonedDateTime timestamp;
 